@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.support.ArgumentsStepFunction;
+import io.jenkins.functions.sample.AnotherFunction;
+import io.jenkins.functions.sample.ExampleFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Map;
+
+/**
+ * Benchmarks invoking {@link ArgumentsStepFunction} steps using {@link ExampleFunction} and {@link AnotherFunction}.
+ * <br>
+ * The arguments classes of these samples only declare a single argument so there is no many arguments case.
+ */
+public class ArgumentsStepBenchmark extends StepBenchmarkSupport {
+    @Param({"example", "anotherFn"})
+    public String step;
+
+    private StepFunction function;
+    private Map<String, Object> oneArgument;
+
+    @Setup
+    public void init() {
+        function = getFunction(step);
+        if ("example".equals(step)) {
+            oneArgument = arguments("message", "Hello");
+        } else {
+            oneArgument = arguments("name", "James");
+        }
+    }
+
+    @Benchmark
+    public Object noArguments() {
+        return function.invoke(emptyArguments, context);
+    }
+
+    @Benchmark
+    public Object oneArgument() {
+        return function.invoke(oneArgument, context);
+    }
+}
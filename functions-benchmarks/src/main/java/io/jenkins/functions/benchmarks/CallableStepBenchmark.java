@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.StepFunctions;
+import io.jenkins.functions.runtime.support.CallableStepFunction;
+import io.jenkins.functions.sample.HelloFunction;
+import io.jenkins.functions.sample.HelloGoodbyeFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Map;
+
+/**
+ * Benchmarks invoking {@link CallableStepFunction} steps using {@link HelloFunction} and {@link HelloGoodbyeFunction}
+ */
+public class CallableStepBenchmark extends StepBenchmarkSupport {
+    private StepFunction hello;
+    private StepFunction helloGoodbye;
+    private Map<String, Object> oneArgument;
+    private Map<String, Object> manyArguments;
+
+    @Setup
+    public void init() {
+        hello = getFunction("hello");
+        // load the subclass explicitly as it does not get its own entry in the generated steps.properties
+        helloGoodbye = StepFunctions.loadFunction("helloGoodbye", HelloGoodbyeFunction.class);
+        oneArgument = arguments("name", "James");
+        manyArguments = arguments("name", "James", "bye", "Goodbye");
+    }
+
+    @Benchmark
+    public Object noArguments() {
+        return hello.invoke(emptyArguments, context);
+    }
+
+    @Benchmark
+    public Object oneArgument() {
+        return hello.invoke(oneArgument, context);
+    }
+
+    @Benchmark
+    public Object manyArguments() {
+        return helloGoodbye.invoke(manyArguments, context);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.helpers.FileCopier;
+import io.jenkins.functions.runtime.helpers.FileHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks copying a tree of files by decoding and encoding characters with {@link FileHelper#copy(Reader, Writer)}
+ * compared to copying bytes with {@link FileCopier} sequentially, in parallel and with hard links
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyTreeBenchmark {
+    public static final int DIRECTORIES = 20;
+    public static final int FILES_PER_DIRECTORY = 50;
+
+    @Param({"65536"})
+    public int fileSize;
+
+    private File dir;
+    private File source;
+    private File target;
+
+    @Setup
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("copy-tree-benchmark-").toFile();
+        source = new File(dir, "source");
+        target = new File(dir, "target");
+        Random random = new Random(1);
+        byte[] data = new byte[fileSize];
+        for (int d = 0; d < DIRECTORIES; d++) {
+            File subDir = new File(source, "dir" + d);
+            subDir.mkdirs();
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                random.nextBytes(data);
+                Files.write(new File(subDir, "file" + f + ".bin").toPath(), data);
+            }
+        }
+    }
+
+    /**
+     * Removes the copy so that each copy creates new files and the benchmark does not fill the disk
+     */
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        delete(target);
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        delete(dir);
+    }
+
+    @Benchmark
+    public long charCopy() throws IOException {
+        File target = nextTarget();
+        long count = 0;
+        for (File subDir : source.listFiles()) {
+            File targetDir = new File(target, subDir.getName());
+            targetDir.mkdirs();
+            for (File file : subDir.listFiles()) {
+                try (Reader reader = new InputStreamReader(new FileInputStream(file));
+                     Writer writer = new OutputStreamWriter(new FileOutputStream(new File(targetDir, file.getName())))) {
+                    FileHelper.copy(reader, writer);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long transferSequential() throws IOException {
+        FileCopier copier = new FileCopier();
+        copier.setParallelism(1);
+        return copier.copy(source, nextTarget());
+    }
+
+    @Benchmark
+    public long transferParallel() throws IOException {
+        return new FileCopier().copy(source, nextTarget());
+    }
+
+    @Benchmark
+    public long hardLinks() throws IOException {
+        FileCopier copier = new FileCopier();
+        copier.setHardLinks(true);
+        return copier.copy(source, nextTarget());
+    }
+
+    protected File nextTarget() {
+        return target;
+    }
+
+    protected static void delete(File file) throws IOException {
+        if (file.exists()) {
+            try (Stream<Path> paths = Files.walk(file.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
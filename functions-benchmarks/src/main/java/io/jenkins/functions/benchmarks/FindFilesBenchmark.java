@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.helpers.FileFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks finding the java source files of a large synthetic workspace with {@link FileFinder} compared to
+ * walking the tree with {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)}, skipping the same excludes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindFilesBenchmark {
+    public static final String GLOB = "**/*.java";
+
+    @Param({"1", "8"})
+    public int parallelism;
+
+    @Param({"50000"})
+    public int files;
+
+    private File dir;
+
+    @Setup
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("find-files-benchmark-").toFile();
+        int filesPerDir = 50;
+        for (int i = 0; i < files; i++) {
+            int d = i / filesPerDir;
+            String extension = i % 5 == 0 ? ".xml" : ".java";
+            createFile("module" + (d % 50) + "/src/main/java/package" + d + "/File" + i + extension);
+            if (i % 5 == 0) {
+                createFile("module" + (d % 50) + "/node_modules/dependency" + d + "/index" + i + ".java");
+            }
+        }
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long fileFinder() {
+        FileFinder finder = new FileFinder(dir, GLOB);
+        finder.setParallelism(parallelism);
+        try (Stream<File> stream = finder.stream()) {
+            return stream.count();
+        }
+    }
+
+    @Benchmark
+    public long walkAll() throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + GLOB);
+        Path base = dir.toPath();
+        AtomicLong count = new AtomicLong();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                return isExcluded(path) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !isExcluded(path) && matcher.matches(base.relativize(path))) {
+                    count.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count.get();
+    }
+
+    /**
+     * Applies the same excludes as {@link FileFinder} so that both benchmarks find the same files
+     */
+    protected static boolean isExcluded(Path path) {
+        Path name = path.getFileName();
+        return name != null && FileFinder.DEFAULT_EXCLUDES.contains(name.toString());
+    }
+
+    protected void createFile(String path) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+}
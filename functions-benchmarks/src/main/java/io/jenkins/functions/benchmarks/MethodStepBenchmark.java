@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.support.MethodStepFunction;
+import io.jenkins.functions.sample.Functions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Map;
+
+/**
+ * Benchmarks invoking {@link MethodStepFunction} steps using the methods on {@link Functions}.
+ * <br>
+ * <code>cheese</code> requires its primitive <code>amount</code> argument so the zero and one argument cases use <code>beer</code>
+ */
+public class MethodStepBenchmark extends StepBenchmarkSupport {
+    private StepFunction beer;
+    private StepFunction cheese;
+    private Map<String, Object> oneArgument;
+    private Map<String, Object> manyArguments;
+
+    @Setup
+    public void init() {
+        beer = getFunction("beer");
+        cheese = getFunction("cheese");
+        oneArgument = arguments("location", "pub");
+        manyArguments = arguments("name", "James", "amount", 69);
+    }
+
+    @Benchmark
+    public Object noArguments() {
+        return beer.invoke(emptyArguments, context);
+    }
+
+    @Benchmark
+    public Object oneArgument() {
+        return beer.invoke(oneArgument, context);
+    }
+
+    @Benchmark
+    public Object manyArguments() {
+        return cheese.invoke(manyArguments, context);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.helpers.LinePumper;
+import io.jenkins.functions.runtime.helpers.LineSink;
+import io.jenkins.functions.support.DefaultLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks logging {@link #LINES} lines of process output by decoding each line into a string compared
+ * to writing the bytes of each line straight to the log
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputPumpBenchmark {
+    public static final int LINES = 100000;
+
+    private byte[] output;
+    private Logger logger;
+
+    @Setup
+    public void init() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            builder.append("[INFO] Downloading https://repo.maven.apache.org/maven2/artifact-").append(i).append(".jar\n");
+        }
+        output = builder.toString().getBytes(StandardCharsets.UTF_8);
+        PrintStream nullStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        logger = new DefaultLogger(nullStream, nullStream);
+    }
+
+    @Benchmark
+    public long decodeLines() throws Exception {
+        return new LinePumper(new ByteArrayInputStream(output), LineSink.decoding(logger::info, StandardCharsets.UTF_8)).call();
+    }
+
+    @Benchmark
+    public long writeLineBytes() throws Exception {
+        return new LinePumper(new ByteArrayInputStream(output), LineSink.info(logger)).call();
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.FunctionSupport;
+import io.jenkins.functions.support.DefaultLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks running {@link #COMMANDS} small commands via {@link FunctionSupport#sh(String)} starting a new process
+ * for each command compared to using a long lived shell session
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShellBenchmark {
+    public static final int COMMANDS = 1000;
+
+    @Param({"false", "true"})
+    public boolean shellSessionMode;
+
+    private FunctionSupport functionSupport;
+
+    @Setup
+    public void init() {
+        PrintStream nullStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        functionSupport = new FunctionSupport();
+        functionSupport.setLogger(new DefaultLogger(nullStream, nullStream));
+        functionSupport.setEnv(Collections.singletonMap("BENCHMARK", "true"));
+        functionSupport.setShellSessionMode(shellSessionMode);
+    }
+
+    @TearDown
+    public void close() {
+        functionSupport.closeShellSession();
+    }
+
+    @Benchmark
+    public void smallCommands() {
+        for (int i = 0; i < COMMANDS; i++) {
+            functionSupport.sh("echo $BENCHMARK " + i);
+        }
+    }
+
+    @Benchmark
+    public String smallCommandsOutput() {
+        String answer = null;
+        for (int i = 0; i < COMMANDS; i++) {
+            answer = functionSupport.shOutput("echo $BENCHMARK " + i);
+        }
+        return answer;
+    }
+}
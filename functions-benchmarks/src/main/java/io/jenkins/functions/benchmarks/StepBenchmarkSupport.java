@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.benchmarks;
+
+import io.jenkins.functions.runtime.FunctionContext;
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.StepFunctions;
+import io.jenkins.functions.support.DefaultLogger;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A base class for benchmarks which invoke the sample step functions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class StepBenchmarkSupport {
+    protected Map<String, StepFunction> functions;
+    protected FunctionContext context;
+    protected Map<String, Object> emptyArguments = Collections.emptyMap();
+
+    @Setup
+    public void loadFunctions() throws Exception {
+        functions = StepFunctions.loadStepFunctions(getClass().getClassLoader());
+
+        // lets discard any logging from the steps so we measure the invocation rather than the console
+        PrintStream nullStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        context = new FunctionContext(new DefaultLogger(nullStream, nullStream), new File("."));
+    }
+
+    protected StepFunction getFunction(String name) {
+        StepFunction function = functions.get(name);
+        if (function == null) {
+            throw new IllegalArgumentException("No step function called " + name + " on the classpath");
+        }
+        return function;
+    }
+
+    protected static Map<String, Object> arguments(Object... namesAndValues) {
+        Map<String, Object> answer = new HashMap<>();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            answer.put(namesAndValues[i].toString(), namesAndValues[i + 1]);
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.helpers.Environment;
+import io.jenkins.functions.support.DefaultLogger;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * The immutable state in which {@link FunctionSupport} runs commands: the current directory, environment variables,
+ * logger, container and deadline.
+ * <br>
+ * Blocks such as {@link FunctionSupport#dir(File, java.util.concurrent.Callable)} run in a child scope created via
+ * the <code>with</code> methods rather than changing shared state, so a scope can be used by many threads at once.
+ */
+public class ExecutionScope {
+    private static final ExecutionScope DEFAULT = new ExecutionScope(new File("."), Environment.getSystem(), DefaultLogger.getInstance(), null, 0L);
+
+    private final File currentDir;
+    private final Environment environment;
+    private final Logger logger;
+    private final String container;
+    private final long deadline;
+
+    protected ExecutionScope(File currentDir, Environment environment, Logger logger, String container, long deadline) {
+        this.currentDir = currentDir;
+        this.environment = environment;
+        this.logger = logger;
+        this.container = container;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the scope using the current directory, no environment variable overrides, the default logger and no deadline
+     */
+    public static ExecutionScope getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionScope{" +
+                "currentDir=" + currentDir +
+                ", env=" + environment.getOverrides().keySet() +
+                ", container='" + container + '\'' +
+                ", deadline=" + deadline +
+                '}';
+    }
+
+    public ExecutionScope withCurrentDir(File currentDir) {
+        return new ExecutionScope(currentDir, environment, logger, container, deadline);
+    }
+
+    /**
+     * Returns a child scope with the given environment variables replacing all of the current ones
+     */
+    public ExecutionScope withEnv(Map<String, String> env) {
+        return new ExecutionScope(currentDir, Environment.of(env), logger, container, deadline);
+    }
+
+    /**
+     * Returns a child scope with the given environment variables added to or overriding the current ones
+     */
+    public ExecutionScope withEnvOverrides(Map<String, String> overrides) {
+        if (overrides.isEmpty()) {
+            return this;
+        }
+        return new ExecutionScope(currentDir, environment.withOverrides(overrides), logger, container, deadline);
+    }
+
+    public ExecutionScope withLogger(Logger logger) {
+        return new ExecutionScope(currentDir, environment, logger, container, deadline);
+    }
+
+    public ExecutionScope withContainer(String container) {
+        return new ExecutionScope(currentDir, environment, logger, container, deadline);
+    }
+
+    /**
+     * Returns a child scope which must complete within the given number of milliseconds; a child scope cannot
+     * extend the deadline of its parent
+     */
+    public ExecutionScope withTimeout(long timeoutMillis) {
+        long newDeadline = System.currentTimeMillis() + timeoutMillis;
+        if (deadline > 0 && deadline < newDeadline) {
+            return this;
+        }
+        return new ExecutionScope(currentDir, environment, logger, container, newDeadline);
+    }
+
+    public File getCurrentDir() {
+        return currentDir;
+    }
+
+    /**
+     * Returns the environment variables which override those of the current process; the map cannot be modified
+     */
+    public Map<String, String> getEnv() {
+        return environment.getOverrides();
+    }
+
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns the name of the container to run commands inside or null for the current container
+     */
+    public String getContainer() {
+        return container;
+    }
+
+    /**
+     * Returns the time in milliseconds since the epoch by which the scope must complete or 0 if there is no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the number of milliseconds until the deadline, which may be negative if it has passed, or
+     * {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long getRemainingMillis() {
+        if (deadline <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return deadline - System.currentTimeMillis();
+    }
+
+    public boolean isExpired() {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+}
@@ -16,30 +16,65 @@
 package io.jenkins.functions.runtime;
 
 import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.helpers.CapturedOutput;
+import io.jenkins.functions.runtime.helpers.ChunkStore;
+import io.jenkins.functions.runtime.helpers.CommandOutputCache;
+import io.jenkins.functions.runtime.helpers.CommandResult;
+import io.jenkins.functions.runtime.helpers.ExecResult;
 import io.jenkins.functions.runtime.helpers.FailedBuildException;
+import io.jenkins.functions.runtime.helpers.FileDeleter;
+import io.jenkins.functions.runtime.helpers.FileFinder;
 import io.jenkins.functions.runtime.helpers.FileHelper;
 import io.jenkins.functions.runtime.helpers.GitHelper;
 import io.jenkins.functions.runtime.helpers.GitRepositoryInfo;
 import io.jenkins.functions.runtime.helpers.Loggers;
+import io.jenkins.functions.runtime.helpers.PrefixLogger;
 import io.jenkins.functions.runtime.helpers.ProcessHelper;
+import io.jenkins.functions.runtime.helpers.ShellSession;
 import io.jenkins.functions.runtime.helpers.Strings;
-import io.jenkins.functions.support.DefaultLogger;
+import io.jenkins.functions.runtime.helpers.WorkspaceArchive;
+import io.jenkins.functions.runtime.helpers.WorkspaceIndex;
+import io.jenkins.functions.runtime.metrics.StepMetric;
+import io.jenkins.functions.runtime.metrics.StepMetrics;
+import io.jenkins.functions.runtime.trace.Span;
+import io.jenkins.functions.runtime.trace.Tracer;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  */
-public class FunctionSupport {
-    protected Logger logger = DefaultLogger.getInstance();
-    protected File currentDir = new File(".");
-    private Map<String, String> env = new HashMap<>();
+public class FunctionSupport implements Closeable {
+    public static final String CAPTURED_OUTPUT_DIR = CapturedOutput.SPILL_DIR_NAME;
+    public static final String CHUNK_STORE_DIR = ".step-functions/chunk-store";
+
+    private volatile ExecutionScope rootScope = ExecutionScope.getDefault();
+    private final ThreadLocal<ExecutionScope> threadScope = new ThreadLocal<>();
+    private boolean shellSessionMode;
+    private ShellSession shellSession;
+    private CommandOutputCache commandOutputCache = CommandOutputCache.getInstance();
+    private boolean workspaceIndexMode;
+    private ChunkStore chunkStore = new ChunkStore(new File(System.getProperty("user.home"), CHUNK_STORE_DIR));
+    private String stashScope;
 
     public void callStep(String stepName, Map<String, Object> arguments) {
         // TODO...
@@ -58,7 +93,7 @@ public class FunctionSupport {
     }
 
     protected File createFile(String name) {
-        return new File(currentDir, name);
+        return new File(getCurrentDir(), name);
     }
 
     /**
@@ -66,61 +101,511 @@ public class FunctionSupport {
      */
     public void sh(String command) {
         try {
+            if (shellSessionMode && getScope().getDeadline() <= 0) {
+                try (Span span = Tracer.getInstance().startSpan(command, "process")) {
+                    int exitCode = getShellSession().run(getCurrentDir(), getEnv(), command, getLogger());
+                    span.addArg("exitCode", exitCode);
+                }
+                return;
+            }
             exec("bash", "-c", command);
         } catch (IOException e) {
             throw new FailedBuildException("Failed to run command: " + command, e);
         }
     }
 
+    /**
+     * Invokes the given command killing it and all of its descendants if it does not complete within the timeout
+     */
+    public void sh(String command, long timeout, TimeUnit unit) {
+        try {
+            timeout(timeout, unit, () -> {
+                sh(command);
+                return null;
+            });
+        } catch (FailedBuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FailedBuildException("Failed to run command: " + command, e);
+        }
+    }
+
     /**
      * Returns the output of the given command
      */
     public String shOutput(String command) {
         try {
+            if (shellSessionMode && getScope().getDeadline() <= 0) {
+                try (Span span = Tracer.getInstance().startSpan(command, "process")) {
+                    return getShellSession().runCaptureOutput(getCurrentDir(), getEnv(), command, getLogger());
+                }
+            }
             return execAndGetOutput("bash", "-c", command);
         } catch (IOException e) {
             throw new FailedBuildException("Failed to run command: " + command, e);
         }
     }
 
+    /**
+     * Returns the output of the given command spilling large outputs to a temporary file in the workspace.
+     * The returned output must be closed to delete the temporary file.
+     */
+    public CapturedOutput shCaptureOutput(String command) {
+        try {
+            return execAndCaptureOutput("bash", "-c", command);
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to run command: " + command, e);
+        }
+    }
+
+    /**
+     * Returns the output of the given command as a lazy stream of lines which are read as the command produces them.
+     * The stream must be closed; closing it early kills the command.
+     */
+    public Stream<String> shOutputLines(String command) {
+        try {
+            return ProcessHelper.runCommandStreamOutput(getCurrentDir(), getLogger(), getEnv(), getTimeoutMillis(), TimeUnit.MILLISECONDS, "bash", "-c", command);
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to run command: " + command, e);
+        }
+    }
+
+    /**
+     * Passes each line of the output of the given command to the consumer as the command produces it until the
+     * consumer returns false; in which case the command is killed
+     *
+     * @return the number of lines consumed
+     */
+    public long shOutputLines(String command, Predicate<String> consumer) {
+        try (Span span = Tracer.getInstance().startSpan(command, "process")) {
+            long lines = ProcessHelper.runCommandForEachLine(getCurrentDir(), getLogger(), getEnv(), consumer, getTimeoutMillis(), TimeUnit.MILLISECONDS, "bash", "-c", command);
+            span.addArg("lines", lines);
+            return lines;
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to run command: " + command, e);
+        }
+    }
+
+    /**
+     * Runs the commands one after the other in a single shell process failing the build if any command fails
+     *
+     * @return the exit code and output of each command
+     */
+    public List<CommandResult> shBatch(List<String> commands) {
+        return shBatch(commands, true);
+    }
+
+    /**
+     * Runs the commands one after the other in a single shell process so that a <code>cd</code> or
+     * <code>export</code> in one command affects the following commands.
+     *
+     * @param failFast if true then the build fails at the first command which fails; otherwise all the
+     *                 commands are run and the exit code of each command is returned
+     * @return the exit code and output of each command
+     */
+    public List<CommandResult> shBatch(List<String> commands, boolean failFast) {
+        List<CommandResult> results;
+        try (Span span = Tracer.getInstance().startSpan("batch of " + commands.size() + " commands", "process")) {
+            results = ShellSession.runBatch(getCurrentDir(), getEnv(), commands, failFast, getTimeoutMillis(), TimeUnit.MILLISECONDS, getLogger());
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to run commands: " + commands, e);
+        }
+        if (failFast) {
+            for (int i = 0, size = results.size(); i < size; i++) {
+                CommandResult result = results.get(i);
+                if (!result.isSuccess()) {
+                    throw new FailedBuildException("Failed to run command " + (i + 1) + " of " + commands.size() + ": " + result.getCommand() + " exit code: " + result.getExitCode());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Invokes the given command returning its exit code and resource usage
+     */
+    public ExecResult shWithResult(String command) {
+        return execWithResult("bash", "-c", command);
+    }
+
+    /**
+     * Runs the given command
+     *
+     * @throws FailedBuildException if the command was killed as the deadline of the current scope passed
+     */
     public void exec(String... commands) throws IOException {
-        ProcessHelper.runCommand(currentDir, getLogger(), getEnv(), commands);
+        ExecResult result = execWithResult(commands);
+        if (result.isKilled()) {
+            throw new FailedBuildException("Command " + result.getCommandLine() + " was killed: " + result.getKillReason());
+        }
+    }
+
+    /**
+     * Runs the given command returning its exit code and resource usage
+     */
+    public ExecResult execWithResult(String... commands) {
+        return ProcessHelper.runCommandWithResult(getCurrentDir(), getLogger(), getEnv(), getTimeoutMillis(), TimeUnit.MILLISECONDS, commands);
     }
 
     public String execAndGetOutput(String... commands) throws IOException {
-        return ProcessHelper.runCommandCaptureOutput(currentDir, getLogger(), getEnv(), commands);
+        return ProcessHelper.runCommandCaptureOutput(getCurrentDir(), getLogger(), getEnv(), getTimeoutMillis(), TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Returns the time left before the deadline of the current scope or zero if there is no deadline
+     *
+     * @throws FailedBuildException if the deadline has passed
+     */
+    protected long getTimeoutMillis() {
+        ExecutionScope scope = getScope();
+        if (scope.getDeadline() <= 0) {
+            return 0;
+        }
+        long remaining = scope.getRemainingMillis();
+        if (remaining <= 0) {
+            throw new FailedBuildException("Timed out: the deadline of " + scope + " has passed");
+        }
+        return remaining;
+    }
+
+    public boolean isShellSessionMode() {
+        return shellSessionMode;
+    }
+
+    /**
+     * Enables or disables running the commands of {@link #sh(String)} and {@link #shOutput(String)} in a single long
+     * lived shell process rather than starting a new <code>bash</code> process for each command
+     */
+    public void setShellSessionMode(boolean shellSessionMode) {
+        this.shellSessionMode = shellSessionMode;
+        if (!shellSessionMode) {
+            closeShellSession();
+        }
+    }
+
+    /**
+     * Releases the resources of this object such as the shell process of shell session mode; step functions are
+     * closed once they have been invoked
+     */
+    @Override
+    public void close() {
+        closeShellSession();
+    }
+
+    /**
+     * Terminates the shell process used in shell session mode; a new one is started by the next command
+     */
+    public synchronized void closeShellSession() {
+        if (shellSession != null) {
+            shellSession.close();
+            shellSession = null;
+        }
+    }
+
+    protected synchronized ShellSession getShellSession() throws IOException {
+        if (shellSession == null || !shellSession.isAlive()) {
+            shellSession = new ShellSession(getCurrentDir());
+        }
+        return shellSession;
+    }
+
+    /**
+     * Returns the output of an idempotent probe command such as <code>git rev-parse HEAD</code> from the
+     * {@link #getCommandOutputCache()} if the command has already been run by the same build in the same directory with
+     * the same environment and none of the watched files have been modified since.
+     *
+     * @param watchedFiles the names of files relative to the current directory which affect the output of the command
+     */
+    public String shOutputCached(String command, String... watchedFiles) {
+        File[] files = new File[watchedFiles.length];
+        for (int i = 0; i < watchedFiles.length; i++) {
+            files[i] = createFile(watchedFiles[i]);
+        }
+        try {
+            return getCommandOutputCache().getOutput(getBuildTag(), command, getCurrentDir(), getEnv(), files, () -> shOutput(command));
+        } catch (FailedBuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FailedBuildException("Failed to run command: " + command, e);
+        }
+    }
+
+    public CommandOutputCache getCommandOutputCache() {
+        return commandOutputCache;
+    }
+
+    /**
+     * Sets the cache used by {@link #shOutputCached(String, String...)}; defaults to the cache shared by all builds on this agent
+     */
+    public void setCommandOutputCache(CommandOutputCache commandOutputCache) {
+        this.commandOutputCache = commandOutputCache;
+    }
+
+    /**
+     * Returns the output of the given command keeping at most {@link CapturedOutput#DEFAULT_MEMORY_LIMIT} characters
+     * in memory and spilling the rest to a temporary file in the workspace.
+     * The returned output must be closed to delete the temporary file.
+     */
+    public CapturedOutput execAndCaptureOutput(String... commands) throws IOException {
+        return ProcessHelper.runCommandCaptureOutput(getCurrentDir(), getLogger(), getEnv(), createFile(CAPTURED_OUTPUT_DIR), CapturedOutput.DEFAULT_MEMORY_LIMIT,
+                getTimeoutMillis(), TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Returns the scope of the current thread; which is the scope of the innermost block such as
+     * {@link #dir(File, Callable)} or {@link #parallel(Map)} branch being evaluated
+     */
+    public ExecutionScope getScope() {
+        ExecutionScope scope = threadScope.get();
+        return scope != null ? scope : rootScope;
+    }
+
+    /**
+     * Replaces the scope of the current thread; or of this object if the current thread is not in a block
+     */
+    public void setScope(ExecutionScope scope) {
+        if (threadScope.get() != null) {
+            threadScope.set(scope);
+        } else {
+            rootScope = scope;
+        }
+    }
+
+    /**
+     * Evaluates the block in the given scope on the current thread then restores the previous scope
+     */
+    public <T> T withScope(ExecutionScope scope, Callable<T> callable) throws Exception {
+        ExecutionScope previous = threadScope.get();
+        threadScope.set(scope);
+        try {
+            return callable.call();
+        } finally {
+            if (previous != null) {
+                threadScope.set(previous);
+            } else {
+                threadScope.remove();
+            }
+        }
     }
 
     public File getCurrentDir() {
-        return currentDir;
+        return getScope().getCurrentDir();
     }
 
     public void setCurrentDir(File currentDir) {
-        this.currentDir = currentDir;
+        setScope(getScope().withCurrentDir(currentDir));
 
         // TODO should we also set a system property for 'pwd' etc?
     }
 
     public Logger getLogger() {
-        return logger;
+        return getScope().getLogger();
     }
 
     public void setLogger(Logger logger) {
-        this.logger = logger;
+        setScope(getScope().withLogger(logger));
     }
 
+    /**
+     * Returns the environment variables of the current scope which cannot be modified; use {@link #withEnv(Map, Callable)}
+     * or {@link #setEnv(Map)} to change them
+     */
     public Map<String, String> getEnv() {
-        return env;
+        return getScope().getEnv();
     }
 
     public void setEnv(Map<String, String> env) {
-        this.env = env;
+        setScope(getScope().withEnv(env));
     }
 
     public String readFile(String fileName) throws IOException {
         return FileHelper.readFully(createFile(fileName));
     }
 
+    public String readFile(String fileName, Charset charset) throws IOException {
+        return FileHelper.readFully(createFile(fileName), charset);
+    }
+
+    /**
+     * Returns a lazy stream of the lines of the file so that large files can be processed in constant memory.
+     * The stream must be closed.
+     */
+    public Stream<String> readFileLines(String fileName, Charset charset) throws IOException {
+        return FileHelper.readLines(createFile(fileName), charset);
+    }
+
+    public Stream<String> readFileLines(String fileName) throws IOException {
+        return readFileLines(fileName, Charset.defaultCharset());
+    }
+
+    /**
+     * Passes each chunk of the file to the consumer until the consumer returns false; the buffer is reused for each chunk
+     *
+     * @return the number of bytes read
+     */
+    public long readFileChunks(String fileName, Predicate<ByteBuffer> consumer) throws IOException {
+        return FileHelper.forEachChunk(createFile(fileName), FileHelper.DEFAULT_CHUNK_SIZE, consumer);
+    }
+
+    /**
+     * Deletes the file or directory tree relative to the current directory
+     */
+    public void deleteDir(String fileName) {
+        File file = createFile(fileName);
+        try {
+            FileDeleter.deleteRecursively(file);
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to delete " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * Renames the file or directory tree relative to the current directory aside and deletes it in the background so
+     * that the step can carry on straight away
+     */
+    public Future<?> deleteDirAsync(String fileName) {
+        File file = createFile(fileName);
+        try {
+            return FileDeleter.deleteAsync(file);
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to delete " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * Archives the files relative to the current directory which match the glob into a compressed archive file
+     *
+     * @return the number of files archived
+     */
+    public long createArchive(String glob, String archiveFileName) {
+        File archiveFile = createFile(archiveFileName);
+        try {
+            return new WorkspaceArchive().write(getCurrentDir(), glob, archiveFile);
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to archive " + glob + " to " + archiveFile + ": " + e, e);
+        }
+    }
+
+    /**
+     * Extracts an archive created by {@link #createArchive(String, String)} into the current directory
+     *
+     * @return the number of files extracted
+     */
+    public long extractArchive(String archiveFileName) {
+        File archiveFile = createFile(archiveFileName);
+        try {
+            return new WorkspaceArchive().extract(archiveFile, getCurrentDir());
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to extract " + archiveFile + ": " + e, e);
+        }
+    }
+
+    /**
+     * Stashes the files relative to the current directory which match the glob in the {@link #getChunkStore()}
+     * so that only the content which changed since earlier stashes is stored. The name is only unique within the
+     * {@link #getStashScope()}.
+     */
+    public ChunkStore.StashResult stash(String name, String glob) {
+        try {
+            ChunkStore.StashResult result = getChunkStore().stash(getStashScope(), name, getCurrentDir(), glob);
+            getLogger().info("Stashed " + glob + " as " + name + ": " + result);
+            expireStashes();
+            return result;
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to stash " + glob + " as " + name + ": " + e, e);
+        }
+    }
+
+    /**
+     * Deletes the stashes of the {@link #getStashScope()}; e.g. at the end of the build. Stashes which are not deleted
+     * are expired once they have not been used for {@link ChunkStore#getMaxStashAgeMillis()}.
+     *
+     * @return the number of stashes deleted
+     */
+    public int deleteStashes() {
+        int answer = getChunkStore().deleteStashes(getStashScope());
+        expireStashes();
+        return answer;
+    }
+
+    /**
+     * Deletes old stashes and unused chunks from the chunk store at most once an hour; failing to do so does not
+     * fail the build
+     */
+    protected void expireStashes() {
+        try {
+            getChunkStore().expireIfDue();
+        } catch (IOException e) {
+            getLogger().warn("Failed to expire old stashes in " + getChunkStore() + ": " + e);
+        }
+    }
+
+    /**
+     * Restores a stash created by {@link #stash(String, String)} into the current directory only writing the files
+     * which have changed
+     */
+    public ChunkStore.StashResult unstash(String name) {
+        ChunkStore.StashResult result;
+        try {
+            result = getChunkStore().unstash(getStashScope(), name, getCurrentDir());
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to unstash " + name + ": " + e, e);
+        }
+        if (result == null) {
+            throw new FailedBuildException("No such stash " + name + " in " + getChunkStore());
+        }
+        getLogger().info("Unstashed " + name + ": " + result);
+        return result;
+    }
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    /**
+     * Sets the store used by {@link #stash(String, String)}; defaults to <code>~/.step-functions/chunk-store</code>
+     */
+    public void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+    /**
+     * Returns the scope of the stash names; by default the build given by the <code>BUILD_TAG</code> environment
+     * variable and the current directory so that builds and parallel branches sharing a chunk store cannot replace
+     * each other's stashes
+     */
+    public String getStashScope() {
+        if (stashScope != null) {
+            return stashScope;
+        }
+        String buildTag = getBuildTag();
+        String dir;
+        try {
+            dir = getCurrentDir().getCanonicalPath();
+        } catch (IOException e) {
+            dir = getCurrentDir().getAbsolutePath();
+        }
+        return UUID.nameUUIDFromBytes((buildTag + "\n" + dir).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Returns the <code>BUILD_TAG</code> environment variable which identifies the current build or null if it is not set
+     */
+    protected String getBuildTag() {
+        String answer = getEnv().get("BUILD_TAG");
+        if (answer == null) {
+            answer = System.getenv("BUILD_TAG");
+        }
+        return answer;
+    }
+
+    /**
+     * Sets the scope of the stash names; e.g. to share stashes between different directories of the same build
+     */
+    public void setStashScope(String stashScope) {
+        this.stashScope = stashScope;
+    }
+
     /**
      * Invokes a pipeline step
      */
@@ -129,12 +614,43 @@ public class FunctionSupport {
         return null;
     }
 
+    /**
+     * Returns the files whose path relative to the current directory matches the glob sorted by path
+     */
     protected List<File> findFiles(String glob) {
-        List<File> answer = new ArrayList<>();
-        // TODO
+        List<File> answer = createFileFinder(glob).findFiles();
+        answer.sort(null);
         return answer;
     }
 
+    /**
+     * Returns a lazy stream of the files whose path relative to the current directory matches the glob in the order
+     * they are found; which avoids collecting the whole result when searching large trees. The stream must be closed.
+     */
+    protected Stream<File> streamFiles(String glob) {
+        return createFileFinder(glob).stream();
+    }
+
+    protected FileFinder createFileFinder(String glob) {
+        FileFinder finder = new FileFinder(getCurrentDir(), glob);
+        if (workspaceIndexMode) {
+            finder.setIndex(WorkspaceIndex.getInstance(getCurrentDir()));
+        }
+        return finder;
+    }
+
+    public boolean isWorkspaceIndexMode() {
+        return workspaceIndexMode;
+    }
+
+    /**
+     * Enables answering {@link #findFiles(String)} from an index of the current directory which is kept in memory
+     * and saved in the directory for later builds; only the directories which have changed are listed again
+     */
+    public void setWorkspaceIndexMode(boolean workspaceIndexMode) {
+        this.workspaceIndexMode = workspaceIndexMode;
+    }
+
     /**
      * Retries the given block until
      *
@@ -149,8 +665,13 @@ public class FunctionSupport {
             if (i > 0) {
                 getLogger().out().println("Retrying");
             }
-            try {
-                return block.call();
+            try (Span span = Tracer.getInstance().startSpan("retry attempt " + (i + 1), "retry")) {
+                try {
+                    return block.call();
+                } catch (Exception e) {
+                    span.addArg("error", e.toString());
+                    throw e;
+                }
             } catch (Exception e) {
                 lastException = e;
                 getLogger().err().println("Failed " + e + ". ");
@@ -164,18 +685,103 @@ public class FunctionSupport {
     }
 
     /**
-     * Invokes the given block in the given directory then restores to the current directory at the end of the block
+     * Invokes the given blocks concurrently failing fast if any block fails
+     *
+     * @return the results of the blocks keyed by the branch name
      */
-    protected <T> T dir(File dir, Callable<T> callable) throws Exception {
-        File currentDir = getCurrentDir();
-        setCurrentDir(dir);
+    public <T> Map<String, T> parallel(Map<String, Callable<T>> branches) {
+        return parallel(branches, branches.size(), true);
+    }
+
+    /**
+     * Invokes the given blocks concurrently on a work stealing pool running at most <code>maxConcurrency</code>
+     * blocks at once. Each block runs with its own copy of the current directory, environment variables and
+     * a logger which prefixes its lines with the branch name so that branches cannot change each others state.
+     *
+     * @param failFast if true then the remaining blocks are cancelled as soon as any block fails; otherwise all the
+     *                 blocks are run and then the build fails if any of them failed
+     * @return the results of the blocks keyed by the branch name
+     */
+    public <T> Map<String, T> parallel(Map<String, Callable<T>> branches, int maxConcurrency, boolean failFast) {
+        Map<String, T> answer = new LinkedHashMap<>();
+        if (branches.isEmpty()) {
+            return answer;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(maxConcurrency, branches.size())),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
         try {
-            return callable.call();
+            CompletionService<T> completionService = new ExecutorCompletionService<>(pool);
+            Map<Future<T>, String> futures = new HashMap<>();
+            for (Map.Entry<String, Callable<T>> entry : branches.entrySet()) {
+                String name = entry.getKey();
+                futures.put(completionService.submit(createBranch(name, entry.getValue())), name);
+                answer.put(name, null);
+            }
+            Map<String, Throwable> failures = new LinkedHashMap<>();
+            for (int i = 0, size = futures.size(); i < size; i++) {
+                Future<T> future = completionService.take();
+                String name = futures.get(future);
+                try {
+                    answer.put(name, future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    failures.put(name, cause);
+                    if (failFast) {
+                        pool.shutdownNow();
+                        throw new FailedBuildException("Parallel branch " + name + " failed: " + cause, cause);
+                    }
+                }
+            }
+            if (!failures.isEmpty()) {
+                Map.Entry<String, Throwable> first = failures.entrySet().iterator().next();
+                FailedBuildException exception = new FailedBuildException("Parallel branches " + failures.keySet() + " failed. " + first.getKey() + ": " + first.getValue(), first.getValue());
+                for (Throwable failure : failures.values()) {
+                    if (failure != first.getValue()) {
+                        exception.addSuppressed(failure);
+                    }
+                }
+                throw exception;
+            }
+            return answer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FailedBuildException("Interrupted waiting for parallel branches " + branches.keySet(), e);
         } finally {
-            setCurrentDir(currentDir);
+            pool.shutdownNow();
         }
     }
 
+    /**
+     * Returns a block which evaluates the branch on another thread with a copy of the state of the current thread
+     */
+    protected <T> Callable<T> createBranch(String name, Callable<T> callable) {
+        ExecutionScope parent = getScope();
+        StepMetric metric = StepMetrics.getInstance().getCurrentMetric();
+        Callable<T> traced = Tracer.getInstance().wrap("branch " + name, "parallel", callable);
+        return () -> {
+            StepMetric previousMetric = StepMetrics.getInstance().setCurrentMetric(metric);
+            try (PrefixLogger logger = new PrefixLogger(parent.getLogger(), "[" + name + "] ")) {
+                return withScope(parent.withLogger(logger), traced);
+            } finally {
+                StepMetrics.getInstance().setCurrentMetric(previousMetric);
+            }
+        };
+    }
+
+    /**
+     * Invokes the given block in the given directory
+     */
+    protected <T> T dir(File dir, Callable<T> callable) throws Exception {
+        return withScope(getScope().withCurrentDir(dir), callable);
+    }
+
+    /**
+     * Invokes the given block with the given environment variables added to the current environment variables
+     */
+    protected <T> T withEnv(Map<String, String> env, Callable<T> callable) throws Exception {
+        return withScope(getScope().withEnvOverrides(env), callable);
+    }
+
     /**
      * Clones the git repository to a folder based on the repository name and evaluates the block
      */
@@ -185,17 +791,26 @@ public class FunctionSupport {
         if (Strings.notEmpty(dirName)) {
             dirName = "gitCloneDir";
         }
-        sh("git clone " + url + " " + dirName);
+        try (Span span = Tracer.getInstance().startSpan("git clone " + url, "git")) {
+            sh("git clone " + url + " " + dirName);
+        }
         File projectDir = createFile(dirName);
         return dir(projectDir, callable);
     }
 
+    /**
+     * Invokes the given block killing any command it runs which is still running when the timeout expires
+     */
+    protected <T> T timeout(long timeout, TimeUnit unit, Callable<T> callable) throws Exception {
+        return withScope(getScope().withTimeout(unit.toMillis(timeout)), callable);
+    }
+
     /**
      * Specifies the container name to run commands inside
      */
     protected <T> T container(String containerName, Callable<T> callable) {
         try {
-            return callable.call();
+            return withScope(getScope().withContainer(containerName), callable);
         } catch (Exception e) {
             throw new FailedBuildException(e);
         }
@@ -65,6 +65,14 @@ public class StepMetadata {
         return implementationClass;
     }
 
+    /**
+     * Returns true if the step returns a {@link java.util.stream.Stream} or {@link java.util.Iterator}
+     * so that its results can be consumed incrementally via {@link StepResults}
+     */
+    public boolean isStreaming() {
+        return StepResults.isStreamingType(returnType);
+    }
+
     /**
      * Returns the method prototype text
      */
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime;
+
+import io.jenkins.functions.runtime.helpers.BufferedIterator;
+import io.jenkins.functions.runtime.helpers.FailedBuildException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.BaseStream;
+
+/**
+ * Helper methods for consuming the results of step functions which return a {@link java.util.stream.Stream}
+ * or {@link Iterator} incrementally rather than as a single materialized value.
+ */
+public class StepResults {
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * Returns true if the given result is produced incrementally
+     */
+    public static boolean isStreaming(Object result) {
+        return result instanceof BaseStream || result instanceof Iterator;
+    }
+
+    /**
+     * Returns true if a step function with the given return type produces its results incrementally
+     */
+    public static boolean isStreamingType(Class<?> type) {
+        return type != null && (BaseStream.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type));
+    }
+
+    /**
+     * Invokes the function passing each value of its result to the consumer until the consumer returns false
+     *
+     * @return the number of values consumed
+     */
+    public static long invoke(StepFunction function, Map<String, Object> arguments, FunctionContext context, Predicate<Object> consumer) {
+        return forEach(function.invoke(arguments, context), consumer);
+    }
+
+    /**
+     * Passes each value of the result to the consumer in the current thread until the consumer returns false
+     * then closes the result.
+     *
+     * @return the number of values consumed
+     */
+    public static long forEach(Object result, Predicate<Object> consumer) {
+        long count = 0;
+        try {
+            Iterator<?> iterator = iterator(result);
+            while (iterator.hasNext()) {
+                count++;
+                if (!consumer.test(iterator.next())) {
+                    break;
+                }
+            }
+        } finally {
+            close(result);
+        }
+        return count;
+    }
+
+    /**
+     * Passes each value of the result to the consumer until the consumer returns false. The values are produced on a
+     * background thread reading ahead at most <code>bufferSize</code> values so that a slow producer and consumer can overlap.
+     *
+     * @return the number of values consumed
+     */
+    public static long forEach(Object result, int bufferSize, Predicate<Object> consumer) {
+        long count = 0;
+        try (BufferedIterator<Object> iterator = new BufferedIterator<>(iterator(result), bufferSize, () -> close(result))) {
+            while (iterator.hasNext()) {
+                count++;
+                if (!consumer.test(iterator.next())) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the values of the result as a list; which is required when passing results to code which
+     * needs a serializable value
+     */
+    public static List<Object> toList(Object result) {
+        List<Object> answer = new ArrayList<>();
+        forEach(result, value -> answer.add(value));
+        return answer;
+    }
+
+    /**
+     * Returns an iterator over the values of the result. A non streaming result is treated as a single value.
+     */
+    public static Iterator<?> iterator(Object result) {
+        if (result instanceof BaseStream) {
+            return ((BaseStream<?, ?>) result).iterator();
+        }
+        if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        }
+        if (result instanceof Iterable) {
+            return ((Iterable<?>) result).iterator();
+        }
+        return Collections.singletonList(result).iterator();
+    }
+
+    /**
+     * Releases any resources held by the result
+     */
+    public static void close(Object result) {
+        if (result instanceof BaseStream) {
+            ((BaseStream<?, ?>) result).close();
+        } else if (result instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) result).close();
+            } catch (Exception e) {
+                throw new FailedBuildException("Failed to close step result " + result + ": " + e, e);
+            }
+        }
+    }
+}
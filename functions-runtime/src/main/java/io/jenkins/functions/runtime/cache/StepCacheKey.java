@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.cache;
+
+import io.jenkins.functions.runtime.StepMetadata;
+import io.jenkins.functions.runtime.helpers.ContentHasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Creates the key of a step result in a {@link StepResultCache} from the step name, the version of the step class,
+ * the argument values and their types, the content of the input files and the names of the output files.
+ */
+public class StepCacheKey {
+    private final MessageDigest digest;
+
+    public StepCacheKey() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 support: " + e, e);
+        }
+    }
+
+    public StepCacheKey addStep(StepMetadata metadata) throws IOException {
+        addValue("step", metadata.getName());
+        Class<?> clazz = metadata.getImplementationClass();
+        if (clazz != null) {
+            addValue("class", clazz.getName());
+            addValue("version", getClassVersion(clazz));
+        }
+        return this;
+    }
+
+    public StepCacheKey addArguments(Map<String, Object> arguments) {
+        if (arguments != null) {
+            SortedMap<String, Object> sorted = new TreeMap<>(arguments);
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                addValue("argument." + entry.getKey(), toString(entry.getValue()));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the content of the given file or all the files inside the given directory. Files are hashed in parallel
+     * and the digests of unchanged files are reused from the {@link ContentHasher}.
+     */
+    public StepCacheKey addInputFile(File baseDir, String name) throws IOException {
+        File file = new File(baseDir, name);
+        if (file.exists()) {
+            addValue(file.isDirectory() ? "directory" : "file", name);
+            digest.update(ContentHasher.getInstance().hash(file));
+            digest.update((byte) 0);
+        } else {
+            addValue("missing", name);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the name of a file or directory the step writes; so steps with the same inputs which write different
+     * outputs do not share a result
+     */
+    public StepCacheKey addOutputFile(String name) {
+        addValue("output", name);
+        return this;
+    }
+
+    /**
+     * Returns the hex encoded key
+     */
+    @Override
+    public String toString() {
+        try {
+            return toHex(((MessageDigest) digest.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected void addValue(String name, String value) {
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '=');
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    protected void updateDigest(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, len);
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Returns a version for the class based on its implementation version and its bytecode so that
+     * recompiling a step with different behaviour invalidates its cached results
+     */
+    protected String getClassVersion(Class<?> clazz) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        Package aPackage = clazz.getPackage();
+        if (aPackage != null && aPackage.getImplementationVersion() != null) {
+            builder.append(aPackage.getImplementationVersion());
+        }
+        String className = clazz.getName();
+        URL resource = clazz.getResource(className.substring(className.lastIndexOf('.') + 1) + ".class");
+        if (resource != null) {
+            StepCacheKey classKey = new StepCacheKey();
+            try (InputStream in = resource.openStream()) {
+                classKey.updateDigest(in);
+            }
+            builder.append(":").append(classKey.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the value with its type so that values with the same text such as <code>1</code> and <code>"1"</code>,
+     * or a list and its <code>toString()</code>, have different keys
+     */
+    protected static String toString(Object value) {
+        StringBuilder builder = new StringBuilder();
+        appendValue(builder, value);
+        return builder.toString();
+    }
+
+    protected static void appendValue(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof Object[]) {
+            appendValues(builder, "array", Arrays.asList((Object[]) value));
+        } else if (value.getClass().isArray()) {
+            List<Object> values = new ArrayList<>();
+            for (int i = 0, size = Array.getLength(value); i < size; i++) {
+                values.add(Array.get(value, i));
+            }
+            appendValues(builder, value.getClass().getComponentType().getName() + "[]", values);
+        } else if (value instanceof List) {
+            appendValues(builder, "list", (List<?>) value);
+        } else if (value instanceof Collection) {
+            appendValues(builder, "collection", sorted((Collection<?>) value));
+        } else if (value instanceof Map) {
+            List<String> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                StringBuilder entryBuilder = new StringBuilder();
+                appendValue(entryBuilder, entry.getKey());
+                entryBuilder.append('=');
+                appendValue(entryBuilder, entry.getValue());
+                entries.add(entryBuilder.toString());
+            }
+            Collections.sort(entries);
+            appendValues(builder, "map", entries);
+        } else {
+            String text = String.valueOf(value);
+            builder.append(value.getClass().getName()).append(':').append(text.length()).append(':').append(text);
+        }
+    }
+
+    protected static void appendValues(StringBuilder builder, String type, Collection<?> values) {
+        builder.append(type).append('(').append(values.size()).append(')');
+        for (Object value : values) {
+            builder.append(' ');
+            appendValue(builder, value);
+        }
+    }
+
+    /**
+     * Returns the encoded values of an unordered collection in a stable order
+     */
+    protected static List<String> sorted(Collection<?> values) {
+        List<String> answer = new ArrayList<>(values.size());
+        for (Object value : values) {
+            answer.add(toString(value));
+        }
+        Collections.sort(answer);
+        return answer;
+    }
+
+    protected static String toHex(byte[] bytes) {
+        return ContentHasher.toHex(bytes);
+    }
+}
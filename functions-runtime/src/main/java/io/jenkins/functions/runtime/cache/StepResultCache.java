@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.cache;
+
+import io.jenkins.functions.runtime.helpers.FileDeleter;
+import io.jenkins.functions.runtime.helpers.FileHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent, content addressed cache of step results which can be shared across builds and concurrent processes.
+ * <br>
+ * Each entry lives in its own directory named after its key and contains the serialized result plus a copy of any
+ * output files. Entries are written into a temporary directory then atomically renamed into place so readers never
+ * see a partially written entry. The least recently used entries are evicted when the cache grows beyond its maximum size.
+ * <br>
+ * The size of the cache is tracked as entries are added so that the cache directory is only scanned when the size
+ * may exceed the maximum. Eviction then removes entries until the cache is below {@link #EVICT_TO_RATIO} of the
+ * maximum size so that the following puts do not scan it again; each scan also picks up the entries added by other
+ * processes.
+ */
+public class StepResultCache {
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    public static final double EVICT_TO_RATIO = 0.9;
+
+    private static final String RESULT_FILE = "result.ser";
+    private static final String OUTPUTS_DIR = "outputs";
+    private static final String TMP_DIR = "tmp";
+
+    private final File directory;
+    private final long maxSize;
+    private final AtomicLong estimatedSize = new AtomicLong(-1);
+
+    public StepResultCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    public StepResultCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "StepResultCache{" + directory + "}";
+    }
+
+    /**
+     * Returns the cached entry for the given key or null if there is no entry
+     */
+    public Entry get(String key) {
+        File entryDir = getEntryDir(key);
+        File resultFile = new File(entryDir, RESULT_FILE);
+        if (!resultFile.isFile()) {
+            return null;
+        }
+        // lets mark the entry as recently used for eviction
+        resultFile.setLastModified(System.currentTimeMillis());
+        return new Entry(entryDir);
+    }
+
+    /**
+     * Stores the result and output files for the given key. Output file names are relative to the given base directory.
+     *
+     * @return true if the result was stored or false if another process stored the same key first
+     */
+    public boolean put(String key, Object result, File baseDir, List<String> outputFiles) throws IOException {
+        if (result != null && !(result instanceof Serializable)) {
+            throw new IllegalArgumentException("Cannot cache result " + result + " as it is not Serializable");
+        }
+        File tmpDir = new File(new File(directory, TMP_DIR), UUID.randomUUID().toString());
+        File outputsDir = new File(tmpDir, OUTPUTS_DIR);
+        if (!outputsDir.mkdirs()) {
+            throw new IOException("Could not create directory " + outputsDir);
+        }
+        long entrySize;
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(tmpDir, RESULT_FILE)))) {
+                out.writeObject(result);
+            }
+            if (outputFiles != null) {
+                for (String outputFile : outputFiles) {
+                    File source = new File(baseDir, outputFile);
+                    if (source.exists()) {
+                        copy(source.toPath(), new File(outputsDir, outputFile).toPath());
+                    }
+                }
+            }
+            entrySize = size(tmpDir.toPath());
+            File entryDir = getEntryDir(key);
+            entryDir.getParentFile().mkdirs();
+            if (!moveAtomically(tmpDir, entryDir)) {
+                return false;
+            }
+        } finally {
+            if (tmpDir.exists()) {
+                delete(tmpDir.toPath());
+            }
+        }
+        if (estimatedSize.get() < 0 || estimatedSize.addAndGet(entrySize) > maxSize) {
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Scans the cache and if it is bigger than the maximum size removes the least recently used entries until it is
+     * no bigger than {@link #EVICT_TO_RATIO} of the maximum size
+     */
+    public synchronized void evict() throws IOException {
+        List<File> entries = new ArrayList<>();
+        File[] buckets = directory.listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                File[] entryDirs = bucket.listFiles();
+                if (entryDirs != null && !bucket.getName().equals(TMP_DIR)) {
+                    Collections.addAll(entries, entryDirs);
+                }
+            }
+        }
+        long totalSize = 0;
+        Map<File, Long> sizes = new HashMap<>();
+        for (File entry : entries) {
+            long size = size(entry.toPath());
+            sizes.put(entry, size);
+            totalSize += size;
+        }
+        if (totalSize <= maxSize) {
+            estimatedSize.set(totalSize);
+            return;
+        }
+        long targetSize = (long) (maxSize * EVICT_TO_RATIO);
+        entries.sort(Comparator.comparingLong(entry -> new File(entry, RESULT_FILE).lastModified()));
+        for (File entry : entries) {
+            if (totalSize <= targetSize) {
+                break;
+            }
+            // rename it out of the way first so that concurrent readers never see a partially deleted entry
+            File tmpDir = new File(new File(directory, TMP_DIR), UUID.randomUUID().toString());
+            tmpDir.getParentFile().mkdirs();
+            if (moveAtomically(entry, tmpDir)) {
+                delete(tmpDir.toPath());
+                totalSize -= sizes.get(entry);
+            }
+        }
+        estimatedSize.set(totalSize);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    protected File getEntryDir(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    protected static boolean moveAtomically(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            return false;
+        } catch (AtomicMoveNotSupportedException e) {
+            throw new IOException("Cache directory must support atomic renames: " + e, e);
+        } catch (IOException e) {
+            // on some platforms renaming onto an existing non empty directory fails with a generic error
+            if (to.exists()) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    protected static void copy(final Path source, final Path target) throws IOException {
+        FileHelper.copyTree(source.toFile(), target.toFile(), true);
+    }
+
+    protected static long size(Path path) throws IOException {
+        final long[] answer = {0};
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                answer[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return answer[0];
+    }
+
+    protected static void delete(Path path) throws IOException {
+        FileDeleter.deleteRecursively(path.toFile());
+    }
+
+    /**
+     * Represents a cached step result
+     */
+    public static class Entry {
+        private final File directory;
+
+        public Entry(File directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Deserializes the cached result using the given class loader
+         */
+        public Object getResult(final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+            try (InputStream in = new FileInputStream(new File(directory, RESULT_FILE));
+                 ObjectInputStream objectIn = new ObjectInputStream(in) {
+                     @Override
+                     protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                         try {
+                             return Class.forName(desc.getName(), false, classLoader);
+                         } catch (ClassNotFoundException e) {
+                             return super.resolveClass(desc);
+                         }
+                     }
+                 }) {
+                return objectIn.readObject();
+            }
+        }
+
+        /**
+         * Copies the cached output files into the given directory
+         */
+        public void restoreOutputFiles(File baseDir) throws IOException {
+            File outputsDir = new File(directory, OUTPUTS_DIR);
+            if (outputsDir.isDirectory()) {
+                copy(outputsDir.toPath(), baseDir.toPath());
+            }
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An iterator which reads ahead from a source iterator on a background thread into a bounded buffer.
+ * <br>
+ * The producer blocks when the buffer is full so memory use is bounded by the buffer size no matter how
+ * many values the source produces. The close action of the source (e.g. to close a stream or kill a process) runs
+ * once, either when the producer reaches the end of the source or when the iterator is closed; which also unblocks
+ * a producer waiting for the source.
+ */
+public class BufferedIterator<T> implements Iterator<T>, Closeable {
+    private static final Object NULL = new Object();
+    private static final Object END = new Object();
+
+    private final Iterator<? extends T> source;
+    private final Runnable onClose;
+    private final BlockingQueue<Object> queue;
+    private final Thread producer;
+    private final AtomicBoolean sourceClosed = new AtomicBoolean();
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private Object next;
+
+    public BufferedIterator(Iterator<? extends T> source, int bufferSize, Runnable onClose) {
+        this.source = source;
+        this.onClose = onClose;
+        this.queue = new ArrayBlockingQueue<>(Math.max(bufferSize, 1));
+        this.producer = new Thread(this::produce, "buffered-iterator");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed) {
+                return false;
+            }
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return false;
+            }
+        }
+        if (next == END) {
+            Throwable t = failure;
+            if (t != null) {
+                failure = null;
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw new FailedBuildException("Failed to produce values: " + t, t);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object answer = next;
+        next = null;
+        return answer == NULL ? null : (T) answer;
+    }
+
+    /**
+     * Stops reading from the source, discards any buffered values and closes the source. The producer may be blocked
+     * reading from the source ignoring interrupts so the source is closed on the calling thread.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            producer.interrupt();
+            queue.clear();
+            closeSource();
+        }
+    }
+
+    /**
+     * Runs the close action of the source unless it has already run
+     */
+    protected void closeSource() {
+        if (onClose != null && sourceClosed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+
+    protected void produce() {
+        try {
+            while (!closed && source.hasNext()) {
+                T value = source.next();
+                queue.put(value == null ? NULL : value);
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            try {
+                closeSource();
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+            }
+            if (!closed) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+}
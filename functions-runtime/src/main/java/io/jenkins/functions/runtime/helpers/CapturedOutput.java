@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captures the output of a command keeping the first characters in memory and spilling the rest to a temporary
+ * file so that capturing a huge output does not fill the heap.
+ * <br>
+ * The spilled characters are stored as UTF-16 so that once the capture is complete they can be accessed randomly
+ * via {@link #charAt(int)} or read sequentially via {@link #openReader()} from a memory mapped view of the file.
+ * Closing the output deletes the temporary file.
+ * <br>
+ * <code>
+ * try (CapturedOutput output = execAndCaptureOutput("git", "log")) { ... }
+ * </code>
+ */
+public class CapturedOutput implements CharSequence, Closeable {
+    public static final int DEFAULT_MEMORY_LIMIT = 64 * 1024;
+    /**
+     * The name of the directory of the temporary files in a workspace; which is one of the
+     * {@link FileFinder#DEFAULT_EXCLUDES} so that temporary files are not found, archived or stashed
+     */
+    public static final String SPILL_DIR_NAME = ".step-output";
+
+    private static final int SEGMENT_BITS = 28;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File spillDir;
+    private final int memoryLimit;
+    private final StringBuilder memory = new StringBuilder();
+    private File spillFile;
+    private FileChannel spillChannel;
+    private ByteBuffer writeBuffer;
+    private long spilled;
+    private List<CharBuffer> segments;
+    private boolean closed;
+
+    /**
+     * @param spillDir    the directory in which to create the temporary file if the output does not fit in memory
+     * @param memoryLimit the maximum number of characters to keep in memory
+     */
+    public CapturedOutput(File spillDir, int memoryLimit) {
+        this.spillDir = spillDir;
+        this.memoryLimit = memoryLimit;
+    }
+
+    public CapturedOutput(File spillDir) {
+        this(spillDir, DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Appends the given line followed by a new line
+     */
+    public void appendLine(String line) throws IOException {
+        append(line);
+        append('\n');
+    }
+
+    public void append(CharSequence text) throws IOException {
+        for (int i = 0, size = text.length(); i < size; i++) {
+            append(text.charAt(i));
+        }
+    }
+
+    public void append(char ch) throws IOException {
+        if (segments != null || closed) {
+            throw new IllegalStateException("Cannot append to completed output " + this);
+        }
+        if (spillChannel == null && memory.length() < memoryLimit) {
+            memory.append(ch);
+            return;
+        }
+        if (spillChannel == null) {
+            startSpilling();
+        }
+        if (!writeBuffer.hasRemaining()) {
+            flushWriteBuffer();
+        }
+        writeBuffer.putChar(ch);
+        spilled++;
+    }
+
+    /**
+     * Completes the capture so that the output can be read
+     */
+    public void complete() throws IOException {
+        if (segments != null) {
+            return;
+        }
+        segments = new ArrayList<>();
+        if (spillChannel != null) {
+            flushWriteBuffer();
+            writeBuffer = null;
+            for (long position = 0; position < spilled; position += SEGMENT_SIZE) {
+                long size = Math.min(SEGMENT_SIZE, spilled - position);
+                segments.add(spillChannel.map(FileChannel.MapMode.READ_ONLY, position * 2, size * 2).asCharBuffer());
+            }
+            spillChannel.close();
+            spillChannel = null;
+        }
+    }
+
+    /**
+     * Returns true if the output did not fit in memory and was spilled to a temporary file
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    public File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Returns the number of characters captured which may be larger than {@link #length()} for huge outputs
+     */
+    public long size() {
+        return memory.length() + spilled;
+    }
+
+    @Override
+    public int length() {
+        long size = size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Output of " + size + " characters is too large for a CharSequence; use openReader() instead");
+        }
+        return (int) size;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return charAt((long) index);
+    }
+
+    public char charAt(long index) {
+        checkComplete();
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not within 0 and " + size());
+        }
+        int memorySize = memory.length();
+        if (index < memorySize) {
+            return memory.charAt((int) index);
+        }
+        long position = index - memorySize;
+        return segments.get((int) (position >>> SEGMENT_BITS)).get((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Copies the characters starting at the given index into the array returning the number of characters copied
+     * or -1 if the index is at the end of the output
+     */
+    public int getChars(long index, char[] buffer, int offset, int length) {
+        checkComplete();
+        long size = size();
+        if (index >= size) {
+            return -1;
+        }
+        int count = (int) Math.min(length, size - index);
+        int memorySize = memory.length();
+        int copied = 0;
+        if (index < memorySize) {
+            int end = (int) Math.min(memorySize, index + count);
+            memory.getChars((int) index, end, buffer, offset);
+            copied = end - (int) index;
+        }
+        while (copied < count) {
+            long position = index + copied - memorySize;
+            CharBuffer segment = segments.get((int) (position >>> SEGMENT_BITS)).duplicate();
+            segment.position((int) (position & (SEGMENT_SIZE - 1)));
+            int n = Math.min(segment.remaining(), count - copied);
+            segment.get(buffer, offset + copied, n);
+            copied += n;
+        }
+        return count;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Invalid range " + start + " to " + end + " for length " + length());
+        }
+        char[] buffer = new char[end - start];
+        getChars(start, buffer, 0, buffer.length);
+        return new String(buffer);
+    }
+
+    /**
+     * Returns the whole output as a String; prefer {@link #openReader()} or the {@link CharSequence} methods
+     * for large outputs
+     */
+    @Override
+    public String toString() {
+        if (segments == null || spillFile == null) {
+            return memory.toString();
+        }
+        return subSequence(0, length()).toString();
+    }
+
+    /**
+     * Returns a reader of the output which does not load the output into memory
+     */
+    public Reader openReader() {
+        checkComplete();
+        return new Reader() {
+            private long position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                int count = getChars(position, buffer, offset, length);
+                if (count > 0) {
+                    position += count;
+                }
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Deletes the temporary file if the output was spilled along with the spill directory if it is then empty
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments = null;
+        writeBuffer = null;
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+        }
+        if (spillFile != null) {
+            new FileDeleter(spillFile).close();
+            // fails if other outputs are still spilled into the directory
+            spillDir.delete();
+        }
+    }
+
+    protected void startSpilling() throws IOException {
+        spillDir.mkdirs();
+        try {
+            spillFile = File.createTempFile("captured-output-", ".utf16", spillDir);
+        } catch (IOException e) {
+            // another output deleted the empty directory
+            spillDir.mkdirs();
+            spillFile = File.createTempFile("captured-output-", ".utf16", spillDir);
+        }
+        spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+        writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    }
+
+    protected void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            spillChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    protected void checkComplete() {
+        if (closed) {
+            throw new IllegalStateException("Output has been closed " + spillFile);
+        }
+        if (segments == null) {
+            throw new IllegalStateException("Output has not been completed " + spillFile);
+        }
+    }
+}
@@ -0,0 +1,829 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A local store of workspace stashes which splits files into content defined chunks and stores each unique chunk
+ * only once; so successive stashes of nearly identical trees such as dependencies and build outputs only store
+ * the chunks which changed.
+ * <br>
+ * Chunk boundaries are found with a gear rolling hash over the file content so inserting or removing bytes only
+ * changes the chunks around the edit. Chunks are stored compressed in files named after their SHA-256 digest
+ * and each stash is a small manifest listing the chunks of each file. Restoring a stash only writes the files whose
+ * content differs from the files already in the target directory.
+ * <br>
+ * The chunks are shared by all stashes while stash names are only unique within a scope; such as a build or
+ * workspace, so that different builds using the same store cannot replace each other's stashes.
+ * <pre>
+ * directory/chunks/ab/abcdef...       a compressed chunk
+ * directory/manifests/scope/name      the manifest of a stash
+ * </pre>
+ * Stashes which have not been stashed or unstashed for {@link #getMaxStashAgeMillis()} are deleted by
+ * {@link #expireIfDue()} along with any chunks which are no longer used.
+ */
+public class ChunkStore {
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+    /**
+     * The average chunk size is about 64K as a boundary is found on average every 2^16 bytes after the minimum size
+     */
+    public static final long CHUNK_MASK = (1L << 16) - 1;
+    public static final String DEFAULT_SCOPE = "default";
+    public static final long DEFAULT_MAX_STASH_AGE_MILLIS = TimeUnit.DAYS.toMillis(Long.getLong("step.function.stash.max.age.days", 7));
+    public static final long EXPIRE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int MAGIC = 0x53434d31;
+    private static final int VERSION = 1;
+    private static final byte TYPE_FILE = 'F';
+    private static final byte TYPE_LINK = 'L';
+    private static final byte TYPE_END = 'E';
+    private static final int DIGEST_LENGTH = 32;
+    private static final String CHUNKS_DIR = "chunks";
+    private static final String MANIFESTS_DIR = "manifests";
+    private static final String TMP_DIR = "tmp";
+    private static final String PRUNE_LOCK_FILE = "prune.lock";
+    private static final String EXPIRED_FILE = "expired";
+    private static final String MARKER_SUFFIX = ".lock";
+    /**
+     * File locks are held by the whole process so threads of this process also wait on this lock
+     */
+    private static final ReentrantLock PRUNE_LOCK = new ReentrantLock();
+    /**
+     * The markers of this process which are never opened by {@link #isInUse()} as closing any channel of a file
+     * releases the locks of the whole process on that file
+     */
+    private static final Set<File> MARKERS = ConcurrentHashMap.newKeySet();
+    private static final long[] GEAR = createGearTable();
+
+    private final File directory;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Set<String> excludes = FileFinder.DEFAULT_EXCLUDES;
+    private long maxStashAgeMillis = DEFAULT_MAX_STASH_AGE_MILLIS;
+
+    public ChunkStore(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkStore{" + directory + "}";
+    }
+
+    /**
+     * Stores the files below the base directory which match the glob as the named stash in the
+     * {@link #DEFAULT_SCOPE}
+     */
+    public StashResult stash(String name, File baseDir, String glob) throws IOException {
+        return stash(DEFAULT_SCOPE, name, baseDir, glob);
+    }
+
+    /**
+     * Stores the files below the base directory which match the glob as the named stash replacing any previous
+     * stash of the same name in the scope
+     */
+    public StashResult stash(String scope, String name, File baseDir, String glob) throws IOException {
+        try (Closeable ignored = lockInUse()) {
+            File manifestFile = getManifestFile(scope, name);
+            FileFinder finder = new FileFinder(baseDir, glob);
+            finder.setExcludes(excludes);
+            List<File> files = finder.findFiles();
+            files.sort(null);
+            Path base = baseDir.toPath();
+            StashResult result = new StashResult();
+
+            List<ForkJoinTask<FileEntry>> tasks = new ArrayList<>(files.size());
+            ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+            try {
+                for (File file : files) {
+                    Path path = file.toPath();
+                    String entryName = WorkspaceArchive.toArchivePath(base.relativize(path));
+                    tasks.add(pool.submit(() -> storeFile(entryName, path, result)));
+                }
+                File tmpFile = createTmpFile();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmpFile))))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    for (ForkJoinTask<FileEntry> task : tasks) {
+                        task.join().write(out);
+                        result.files.increment();
+                    }
+                    out.writeByte(TYPE_END);
+                } catch (UncheckedIOException e) {
+                    tmpFile.delete();
+                    throw e.getCause();
+                }
+                manifestFile.getParentFile().mkdirs();
+                Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                pool.shutdownNow();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Restores the named stash of the {@link #DEFAULT_SCOPE} into the target directory
+     *
+     * @return the result of the restore or null if there is no such stash
+     */
+    public StashResult unstash(String name, File targetDir) throws IOException {
+        return unstash(DEFAULT_SCOPE, name, targetDir);
+    }
+
+    /**
+     * Restores the named stash of the scope into the target directory only writing the files which have changed
+     *
+     * @return the result of the restore or null if there is no such stash
+     */
+    public StashResult unstash(String scope, String name, File targetDir) throws IOException {
+        try (Closeable ignored = lockInUse()) {
+            File manifestFile = getManifestFile(scope, name);
+            if (!manifestFile.isFile()) {
+                return null;
+            }
+            // stashes which are still used are not expired
+            manifestFile.setLastModified(System.currentTimeMillis());
+            Path target = targetDir.toPath().toAbsolutePath().normalize();
+            Files.createDirectories(target);
+            List<FileEntry> entries = readManifest(manifestFile);
+            StashResult result = new StashResult();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(entries.size());
+            ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+            try {
+                for (FileEntry entry : entries) {
+                    Path path = WorkspaceArchive.resolve(target, entry.name);
+                    if (entry.linkTarget == null) {
+                        tasks.add(pool.submit(() -> restoreFile(entry, target, path, result)));
+                    }
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdownNow();
+            }
+            for (FileEntry entry : entries) {
+                if (entry.linkTarget != null) {
+                    Path link = WorkspaceArchive.resolve(target, entry.name);
+                    WorkspaceArchive.createParentDirectories(target, link);
+                    Files.deleteIfExists(link);
+                    Files.createSymbolicLink(link, Paths.get(entry.linkTarget));
+                    result.files.increment();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Deletes the named stash of the {@link #DEFAULT_SCOPE}
+     */
+    public boolean deleteStash(String name) {
+        return deleteStash(DEFAULT_SCOPE, name);
+    }
+
+    /**
+     * Deletes the named stash of the scope; its chunks are deleted by {@link #prune()} if no other stash uses them
+     */
+    public boolean deleteStash(String scope, String name) {
+        File manifestFile = getManifestFile(scope, name);
+        boolean answer = manifestFile.delete();
+        // remove the scope once its last stash is deleted
+        manifestFile.getParentFile().delete();
+        return answer;
+    }
+
+    /**
+     * Deletes all the stashes of the scope; e.g. once the build which created them has completed. Their chunks are
+     * deleted by {@link #prune()} if no other stash uses them.
+     *
+     * @return the number of stashes deleted
+     */
+    public int deleteStashes(String scope) {
+        checkName("scope", scope);
+        File scopeDir = new File(new File(directory, MANIFESTS_DIR), scope);
+        int answer = 0;
+        File[] manifests = scopeDir.listFiles();
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                if (manifest.delete()) {
+                    answer++;
+                }
+            }
+        }
+        scopeDir.delete();
+        return answer;
+    }
+
+    /**
+     * Deletes the chunks which are not used by any stash. Nothing is deleted while the store is being used by a
+     * stash or unstash in this or another process as the chunks of a stash are stored before its manifest.
+     *
+     * @return the number of chunks deleted
+     */
+    public long prune() throws IOException {
+        return expire(-1);
+    }
+
+    /**
+     * Deletes the stashes of every scope which have not been stashed or unstashed within the maximum age followed by
+     * the chunks which are no longer used. Nothing is deleted while the store is being used by a stash or unstash in
+     * this or another process.
+     *
+     * @param maxAgeMillis the maximum age of a stash or a negative value to keep every stash
+     * @return the number of chunks deleted
+     */
+    public long expire(long maxAgeMillis) throws IOException {
+        PRUNE_LOCK.lock();
+        try (FileChannel channel = openPruneLock(); FileLock ignored = channel.lock()) {
+            if (isInUse()) {
+                return 0;
+            }
+            long cutoff = System.currentTimeMillis() - maxAgeMillis;
+            Set<String> used = new HashSet<>();
+            File[] scopes = new File(directory, MANIFESTS_DIR).listFiles();
+            if (scopes != null) {
+                for (File scope : scopes) {
+                    File[] manifests = scope.listFiles();
+                    if (manifests != null) {
+                        for (File manifest : manifests) {
+                            if (maxAgeMillis >= 0 && manifest.lastModified() < cutoff && manifest.delete()) {
+                                continue;
+                            }
+                            for (FileEntry entry : readManifest(manifest)) {
+                                for (byte[] digest : entry.chunks) {
+                                    used.add(ContentHasher.toHex(digest));
+                                }
+                            }
+                        }
+                    }
+                    // only deleted once its last stash has been deleted
+                    scope.delete();
+                }
+            }
+            long answer = 0;
+            File[] dirs = new File(directory, CHUNKS_DIR).listFiles();
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    File[] chunks = dir.listFiles();
+                    if (chunks != null) {
+                        for (File chunk : chunks) {
+                            if (!used.contains(chunk.getName()) && chunk.delete()) {
+                                answer++;
+                            }
+                        }
+                    }
+                }
+            }
+            return answer;
+        } finally {
+            PRUNE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Expires the stashes older than {@link #getMaxStashAgeMillis()} unless the store has already been expired by
+     * this or another process within the last {@link #EXPIRE_INTERVAL_MILLIS}; so that the stashes of completed
+     * builds do not stay on the agent forever
+     *
+     * @return true if the store was expired
+     */
+    public boolean expireIfDue() throws IOException {
+        File expiredFile = new File(directory, EXPIRED_FILE);
+        long now = System.currentTimeMillis();
+        if (expiredFile.exists() && now - expiredFile.lastModified() < EXPIRE_INTERVAL_MILLIS) {
+            return false;
+        }
+        Files.createDirectories(directory.toPath());
+        if (!expiredFile.createNewFile()) {
+            expiredFile.setLastModified(now);
+        }
+        expire(maxStashAgeMillis);
+        return true;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxStashAgeMillis() {
+        return maxStashAgeMillis;
+    }
+
+    /**
+     * Sets how long a stash which is not stashed or unstashed again is kept by {@link #expireIfDue()}
+     */
+    public void setMaxStashAgeMillis(long maxStashAgeMillis) {
+        this.maxStashAgeMillis = maxStashAgeMillis;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Set<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Sets the names of files and directories which are never stashed; defaults to {@link FileFinder#DEFAULT_EXCLUDES}
+     */
+    public void setExcludes(Set<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * Splits the file into chunks storing any new chunks and returning its manifest entry
+     */
+    protected FileEntry storeFile(String name, Path path, StashResult result) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                return new FileEntry(name, 0, 0, -1, new ArrayList<>(), new ArrayList<>(), Files.readSymbolicLink(path).toString());
+            }
+            List<byte[]> digests = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            try (InputStream in = new FileInputStream(path.toFile())) {
+                forEachChunk(in, (chunk, length) -> {
+                    byte[] digest = digest(chunk, length);
+                    digests.add(digest);
+                    lengths.add(length);
+                    result.chunks.increment();
+                    result.bytes.add(length);
+                    if (storeChunk(digest, chunk, length)) {
+                        result.newChunks.increment();
+                        result.newBytes.add(length);
+                    }
+                });
+            }
+            return new FileEntry(name, attributes.size(), attributes.lastModifiedTime().toMillis(), WorkspaceArchive.getMode(path), digests, lengths, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the file from its chunks unless the existing file already has the same content. Any symbolic links in
+     * the parent directories are replaced so that the file cannot be written outside the target directory.
+     */
+    protected void restoreFile(FileEntry entry, Path targetDir, Path path, StashResult result) {
+        try {
+            WorkspaceArchive.createParentDirectories(targetDir, path);
+            if (hasContent(path, entry)) {
+                result.unchangedFiles.increment();
+            } else {
+                if (Files.isSymbolicLink(path)) {
+                    Files.delete(path);
+                }
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS), 64 * 1024)) {
+                    for (int i = 0; i < entry.chunks.size(); i++) {
+                        byte[] digest = entry.chunks.get(i);
+                        File chunkFile = getChunkFile(digest);
+                        try (InputStream in = new InflaterInputStream(new FileInputStream(chunkFile))) {
+                            copy(in, out, entry.lengths.get(i), chunkFile);
+                        }
+                        result.chunks.increment();
+                        result.bytes.add(entry.lengths.get(i));
+                    }
+                }
+            }
+            // an unchanged file may still have different permissions
+            WorkspaceArchive.setMode(path, entry.mode);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modified));
+            result.files.increment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns true if the file already has the content of the entry; files with the same size and modified time are
+     * assumed to be unchanged otherwise files of the same size are chunked and compared
+     */
+    protected boolean hasContent(Path path, FileEntry entry) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!attributes.isRegularFile() || attributes.size() != entry.size) {
+            return false;
+        }
+        if (attributes.lastModifiedTime().toMillis() == entry.modified) {
+            return true;
+        }
+        List<byte[]> digests = new ArrayList<>();
+        try (InputStream in = new FileInputStream(path.toFile())) {
+            forEachChunk(in, (chunk, length) -> digests.add(digest(chunk, length)));
+        }
+        if (digests.size() != entry.chunks.size()) {
+            return false;
+        }
+        for (int i = 0; i < digests.size(); i++) {
+            if (!Arrays.equals(digests.get(i), entry.chunks.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the chunk if it is not already stored
+     *
+     * @return true if the chunk was stored or false if it already existed
+     */
+    protected boolean storeChunk(byte[] digest, byte[] chunk, int length) throws IOException {
+        File chunkFile = getChunkFile(digest);
+        if (chunkFile.isFile()) {
+            return false;
+        }
+        File tmpFile = createTmpFile();
+        try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmpFile))) {
+            out.write(chunk, 0, length);
+        }
+        chunkFile.getParentFile().mkdirs();
+        try {
+            Files.move(tmpFile.toPath(), chunkFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently by another stash
+            tmpFile.delete();
+            return false;
+        } catch (AtomicMoveNotSupportedException e) {
+            tmpFile.delete();
+            throw new IOException("Chunk store directory must support atomic renames: " + e, e);
+        }
+    }
+
+    /**
+     * Splits the stream into content defined chunks passing each chunk to the consumer. The chunk buffer is reused so
+     * the consumer must copy any bytes it keeps.
+     */
+    protected static void forEachChunk(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] chunk = new byte[MAX_CHUNK_SIZE];
+        int length = 0;
+        int scanned = 0;
+        long hash = 0;
+        while (true) {
+            int size = in.read(chunk, length, chunk.length - length);
+            if (size < 0) {
+                break;
+            }
+            length += size;
+            while (scanned < length) {
+                hash = (hash << 1) + GEAR[chunk[scanned++] & 0xff];
+                if ((scanned >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0) || scanned == MAX_CHUNK_SIZE) {
+                    consumer.accept(chunk, scanned);
+                    // keep any bytes read past the boundary as the start of the next chunk
+                    length -= scanned;
+                    System.arraycopy(chunk, scanned, chunk, 0, length);
+                    scanned = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (length > 0) {
+            consumer.accept(chunk, length);
+        }
+    }
+
+    protected static byte[] digest(byte[] chunk, int length) {
+        MessageDigest digest = ContentHasher.createDigest();
+        digest.update(chunk, 0, length);
+        return digest.digest();
+    }
+
+    protected List<FileEntry> readManifest(File manifestFile) throws IOException {
+        List<FileEntry> answer = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(manifestFile))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a chunk store manifest or an unsupported version: " + manifestFile);
+            }
+            while (true) {
+                byte type = in.readByte();
+                if (type == TYPE_END) {
+                    break;
+                }
+                answer.add(FileEntry.read(type, in));
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Marks the store as in use until the result is closed so that {@link #prune()} cannot delete chunks while
+     * they are being stored or restored; first waiting for any prune in progress to finish
+     */
+    protected Closeable lockInUse() throws IOException {
+        File tmpDir = new File(directory, TMP_DIR);
+        tmpDir.mkdirs();
+        File markerFile = new File(tmpDir, UUID.randomUUID() + MARKER_SUFFIX).getAbsoluteFile();
+        MARKERS.add(markerFile);
+        FileChannel marker;
+        try {
+            marker = FileChannel.open(markerFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            MARKERS.remove(markerFile);
+            throw e;
+        }
+        try {
+            marker.lock();
+            // the marker is locked before waiting so that any prune which starts later sees it
+            PRUNE_LOCK.lock();
+            try (FileChannel channel = openPruneLock(); FileLock ignored = channel.lock()) {
+                // waited for any prune in progress
+            } finally {
+                PRUNE_LOCK.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            marker.close();
+            markerFile.delete();
+            MARKERS.remove(markerFile);
+            throw e;
+        }
+        return () -> {
+            try {
+                marker.close();
+            } finally {
+                markerFile.delete();
+                MARKERS.remove(markerFile);
+            }
+        };
+    }
+
+    /**
+     * Returns true if any stash or unstash holds its marker lock; deleting stale markers and temporary files left
+     * by processes which were killed
+     */
+    protected boolean isInUse() throws IOException {
+        File[] files = new File(directory, TMP_DIR).listFiles();
+        if (files == null) {
+            return false;
+        }
+        boolean answer = false;
+        for (File file : files) {
+            if (file.getName().endsWith(MARKER_SUFFIX)) {
+                if (MARKERS.contains(file.getAbsoluteFile())) {
+                    answer = true;
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock == null) {
+                        answer = true;
+                        continue;
+                    }
+                    lock.release();
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                file.delete();
+            }
+        }
+        if (!answer) {
+            for (File file : files) {
+                if (!file.getName().endsWith(MARKER_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+        return answer;
+    }
+
+    protected FileChannel openPruneLock() throws IOException {
+        directory.mkdirs();
+        return FileChannel.open(new File(directory, PRUNE_LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    protected File getManifestFile(String scope, String name) {
+        checkName("scope", scope);
+        checkName("name", name);
+        return new File(new File(new File(directory, MANIFESTS_DIR), scope), name);
+    }
+
+    protected static void checkName(String kind, String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid stash " + kind + ": " + name);
+        }
+    }
+
+    protected File getChunkFile(byte[] digest) {
+        String hex = ContentHasher.toHex(digest);
+        return new File(new File(new File(directory, CHUNKS_DIR), hex.substring(0, 2)), hex);
+    }
+
+    protected File createTmpFile() {
+        File tmpDir = new File(directory, TMP_DIR);
+        tmpDir.mkdirs();
+        return new File(tmpDir, UUID.randomUUID().toString());
+    }
+
+    protected static void copy(InputStream in, OutputStream out, int length, File chunkFile) throws IOException {
+        byte[] buffer = new byte[8192];
+        int remaining = length;
+        while (remaining > 0) {
+            int size = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (size < 0) {
+                throw new IOException("Chunk " + chunkFile + " is truncated");
+            }
+            out.write(buffer, 0, size);
+            remaining -= size;
+        }
+    }
+
+    /**
+     * The gear table of the rolling hash; it must never change as it determines the chunk boundaries
+     */
+    protected static long[] createGearTable() {
+        Random random = new Random(0x5EED_C0DEL);
+        long[] answer = new long[256];
+        for (int i = 0; i < answer.length; i++) {
+            answer[i] = random.nextLong();
+        }
+        return answer;
+    }
+
+    @FunctionalInterface
+    protected interface ChunkConsumer {
+        void accept(byte[] chunk, int length) throws IOException;
+    }
+
+    /**
+     * The manifest entry of a file or symbolic link
+     */
+    protected static class FileEntry {
+        private final String name;
+        private final long size;
+        private final long modified;
+        private final int mode;
+        private final List<byte[]> chunks;
+        private final List<Integer> lengths;
+        private final String linkTarget;
+
+        public FileEntry(String name, long size, long modified, int mode, List<byte[]> chunks, List<Integer> lengths, String linkTarget) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.mode = mode;
+            this.chunks = chunks;
+            this.lengths = lengths;
+            this.linkTarget = linkTarget;
+        }
+
+        public static FileEntry read(byte type, DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            if (type == TYPE_LINK) {
+                return new FileEntry(name, 0, 0, -1, new ArrayList<>(), new ArrayList<>(), in.readUTF());
+            }
+            if (type != TYPE_FILE) {
+                throw new IOException("Corrupt chunk store manifest: unknown record type " + type);
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            int mode = in.readInt();
+            int count = in.readInt();
+            List<byte[]> chunks = new ArrayList<>(count);
+            List<Integer> lengths = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] digest = new byte[DIGEST_LENGTH];
+                in.readFully(digest);
+                chunks.add(digest);
+                lengths.add(in.readInt());
+            }
+            return new FileEntry(name, size, modified, mode, chunks, lengths, null);
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            if (linkTarget != null) {
+                out.writeByte(TYPE_LINK);
+                out.writeUTF(name);
+                out.writeUTF(linkTarget);
+                return;
+            }
+            out.writeByte(TYPE_FILE);
+            out.writeUTF(name);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeInt(mode);
+            out.writeInt(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                out.write(chunks.get(i));
+                out.writeInt(lengths.get(i));
+            }
+        }
+    }
+
+    /**
+     * The number of files, chunks and bytes which were stashed or restored
+     */
+    public static class StashResult {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder unchangedFiles = new LongAdder();
+        private final LongAdder chunks = new LongAdder();
+        private final LongAdder newChunks = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder newBytes = new LongAdder();
+
+        @Override
+        public String toString() {
+            return "StashResult{files: " + getFiles() + " unchangedFiles: " + getUnchangedFiles() + " chunks: " + getChunks() +
+                    " newChunks: " + getNewChunks() + " bytes: " + getBytes() + " newBytes: " + getNewBytes() + "}";
+        }
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        /**
+         * Returns the number of restored files which already had the right content
+         */
+        public long getUnchangedFiles() {
+            return unchangedFiles.sum();
+        }
+
+        public long getChunks() {
+            return chunks.sum();
+        }
+
+        /**
+         * Returns the number of chunks which were not already in the store
+         */
+        public long getNewChunks() {
+            return newChunks.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * Returns the number of bytes of the chunks which were not already in the store
+         */
+        public long getNewBytes() {
+            return newBytes.sum();
+        }
+    }
+}
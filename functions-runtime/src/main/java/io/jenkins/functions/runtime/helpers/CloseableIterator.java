@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Wraps an iterator so that a close action runs when the iterator is closed; e.g. to release the resources
+ * used to produce its values. The close action runs at most once.
+ */
+public class CloseableIterator<T> implements Iterator<T>, Closeable {
+    private final Iterator<T> iterator;
+    private final Runnable onClose;
+    private boolean closed;
+
+    public CloseableIterator(Iterator<T> iterator, Runnable onClose) {
+        this.iterator = iterator;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return iterator.next();
+    }
+
+    @Override
+    public void remove() {
+        iterator.remove();
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        iterator.forEachRemaining(action);
+    }
+
+    /**
+     * Closes the wrapped iterator if it is closeable then runs the close action
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            if (iterator instanceof AutoCloseable) {
+                ((AutoCloseable) iterator).close();
+            }
+        } catch (Exception e) {
+            throw new FailedBuildException("Failed to close iterator " + iterator + ": " + e, e);
+        } finally {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded least recently used cache of the output of idempotent probe commands such as <code>git rev-parse HEAD</code>
+ * or <code>node --version</code> so that running the same probe again is a map lookup rather than a new process.
+ * <br>
+ * Outputs are keyed on the scope, the command, the directory, the environment variables and the last modified time
+ * and size of any watched files; so changing a watched file such as <code>.git/HEAD</code> or <code>package.json</code>
+ * runs the command again. Failed commands are not cached.
+ * <br>
+ * The shared instance lives as long as the agent JVM so the scope is typically the build; otherwise a probe with no
+ * watched files would return the output of an earlier build in the same directory.
+ */
+public class CommandOutputCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final CommandOutputCache instance = new CommandOutputCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    private final Map<String, String> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CommandOutputCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CommandOutputCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all builds on this agent
+     */
+    public static CommandOutputCache getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandOutputCache{size: " + size() + " hits: " + getHits() + " misses: " + getMisses() + "}";
+    }
+
+    /**
+     * Returns the cached output of the command or invokes the block to run the command and caches its output
+     *
+     * @param watchedFiles files which if modified mean the command must be run again; they may not exist
+     */
+    public String getOutput(String command, File dir, Map<String, String> env, File[] watchedFiles, Callable<String> block) throws Exception {
+        return getOutput(null, command, dir, env, watchedFiles, block);
+    }
+
+    /**
+     * Returns the cached output of the command run in the given scope, such as the build, or invokes the block to run
+     * the command and caches its output
+     *
+     * @param scope the scope outputs are shared within or null to share them with every scope
+     * @param watchedFiles files which if modified mean the command must be run again; they may not exist
+     */
+    public String getOutput(String scope, String command, File dir, Map<String, String> env, File[] watchedFiles, Callable<String> block) throws Exception {
+        String key = createKey(scope, command, dir, env, watchedFiles);
+        String answer;
+        synchronized (entries) {
+            answer = entries.get(key);
+        }
+        if (answer != null) {
+            hits.increment();
+            return answer;
+        }
+        misses.increment();
+        answer = block.call();
+        if (answer != null) {
+            synchronized (entries) {
+                entries.put(key, answer);
+            }
+        }
+        return answer;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the proportion of lookups which were found in the cache
+     */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    protected static String createKey(String scope, String command, File dir, Map<String, String> env, File[] watchedFiles) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        if (scope != null) {
+            builder.append(scope);
+        }
+        builder.append('\0').append(command);
+        builder.append('\0').append(dir.getCanonicalPath());
+        if (env != null && !env.isEmpty()) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(env).entrySet()) {
+                builder.append('\0').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+        if (watchedFiles != null) {
+            for (File file : watchedFiles) {
+                builder.append('\0').append(file.getPath()).append(':').append(file.lastModified()).append(':').append(file.length());
+            }
+        }
+        return builder.toString();
+    }
+}
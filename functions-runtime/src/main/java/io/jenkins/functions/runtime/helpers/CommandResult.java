@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Serializable;
+
+/**
+ * The exit code and captured output of a command run as part of a batch
+ */
+public class CommandResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String command;
+    private final int exitCode;
+    private final String output;
+
+    public CommandResult(String command, int exitCode, String output) {
+        this.command = command;
+        this.exitCode = exitCode;
+        this.output = output;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandResult{" +
+                "command='" + command + '\'' +
+                ", exitCode=" + exitCode +
+                '}';
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates SHA-256 fingerprints of files and directory trees for change detection and cache keys.
+ * <br>
+ * The files of a tree are hashed in parallel on a fork join pool; large files are memory mapped. The digest of a
+ * directory is the digest of the sorted names, types and digests of its children; so the digest of a tree only
+ * depends on its content and not on the order in which the files were hashed.
+ * <br>
+ * The digest of each file is cached with its size, modification time and file key (the inode on unix) so that
+ * hashing a tree again only reads the files which have changed. Files modified in the last couple of seconds are
+ * not cached as a later change may not alter their modification time.
+ */
+public class ContentHasher {
+    public static final String ALGORITHM = "SHA-256";
+    public static final int DEFAULT_MAX_CACHED = 250000;
+    public static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+
+    private static final long MAPPED_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte TYPE_FILE = 'f';
+    private static final byte TYPE_DIRECTORY = 'd';
+    private static final byte TYPE_LINK = 'l';
+    private static final byte TYPE_MISSING = 'm';
+    private static final ContentHasher instance = new ContentHasher(DEFAULT_MAX_CACHED);
+
+    private final int maxCached;
+    private final Map<Path, CachedDigest> cache = new ConcurrentHashMap<>();
+    private final LongAdder filesRead = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param maxCached the maximum number of file digests to cache; the cache is cleared when it is full
+     */
+    public ContentHasher(int maxCached) {
+        this.maxCached = maxCached;
+    }
+
+    /**
+     * Returns the hasher shared by all builds on this agent
+     */
+    public static ContentHasher getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentHasher{cached: " + cache.size() + " filesRead: " + getFilesRead() + " cacheHits: " + getCacheHits() + "}";
+    }
+
+    /**
+     * Returns the hex encoded digest of the file or directory tree
+     */
+    public String hashHex(File file) throws IOException {
+        return toHex(hash(file));
+    }
+
+    /**
+     * Returns the digest of the file or directory tree
+     */
+    public byte[] hash(File file) throws IOException {
+        return invoke(new HashTask(file.toPath()));
+    }
+
+    /**
+     * Returns the digest of the given files and directory trees relative to the base directory; the order of the
+     * names does not matter
+     */
+    public byte[] hash(File baseDir, Collection<String> names) throws IOException {
+        Path base = baseDir.toPath();
+        return invoke(new HashNamesTask(base, names));
+    }
+
+    /**
+     * Removes all cached digests
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of files whose content was read rather than found in the cache
+     */
+    public long getFilesRead() {
+        return filesRead.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] answer = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            answer[i * 2] = HEX[b >>> 4];
+            answer[i * 2 + 1] = HEX[b & 0x0f];
+        }
+        return new String(answer);
+    }
+
+    protected byte[] invoke(ForkJoinTask<byte[]> task) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        try {
+            return pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the digest of a file using the cached digest if the file has not changed
+     */
+    protected byte[] hashFile(Path path, BasicFileAttributes attributes) throws IOException {
+        Path key = path.toAbsolutePath();
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Object fileKey = attributes.fileKey();
+        CachedDigest cached = cache.get(key);
+        if (cached != null && cached.matches(attributes.size(), modified, fileKey)) {
+            cacheHits.increment();
+            return cached.digest;
+        }
+        byte[] digest = readDigest(path);
+        filesRead.increment();
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (now - modified >= RACY_NANOS) {
+            if (cache.size() >= maxCached) {
+                cache.clear();
+            }
+            cache.put(key, new CachedDigest(attributes.size(), modified, fileKey, digest));
+        }
+        return digest;
+    }
+
+    protected static byte[] readDigest(Path path) throws IOException {
+        MessageDigest digest = createDigest();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAPPED_READ_THRESHOLD) {
+                for (long position = 0; position < size; position += MAPPED_SEGMENT_SIZE) {
+                    long length = Math.min(MAPPED_SEGMENT_SIZE, size - position);
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(size, 1));
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    protected static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No " + ALGORITHM + " support: " + e, e);
+        }
+    }
+
+    /**
+     * Combines the sorted child entries into the digest of their parent
+     */
+    protected static byte[] combine(TreeMap<String, Entry> children) {
+        MessageDigest digest = createDigest();
+        for (Map.Entry<String, Entry> mapEntry : children.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            digest.update(entry.type);
+            digest.update(mapEntry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(entry.getDigest());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Creates the entry of a child forking a task to hash its content
+     */
+    protected Entry createEntry(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return new Entry(TYPE_MISSING, new byte[0], null);
+        }
+        if (attributes.isSymbolicLink()) {
+            byte[] target = Files.readSymbolicLink(path).toString().getBytes(StandardCharsets.UTF_8);
+            return new Entry(TYPE_LINK, createDigest().digest(target), null);
+        }
+        HashTask task = new HashTask(path, attributes);
+        task.fork();
+        return new Entry(attributes.isDirectory() ? TYPE_DIRECTORY : TYPE_FILE, null, task);
+    }
+
+    protected static class CachedDigest {
+        private final long size;
+        private final long modified;
+        private final Object fileKey;
+        private final byte[] digest;
+
+        public CachedDigest(long size, long modified, Object fileKey, byte[] digest) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        public boolean matches(long size, long modified, Object fileKey) {
+            return this.size == size && this.modified == modified && Objects.equals(this.fileKey, fileKey);
+        }
+    }
+
+    /**
+     * A child of a directory whose digest may still be being computed
+     */
+    protected static class Entry {
+        private final byte type;
+        private final byte[] digest;
+        private final ForkJoinTask<byte[]> task;
+
+        public Entry(byte type, byte[] digest, ForkJoinTask<byte[]> task) {
+            this.type = type;
+            this.digest = digest;
+            this.task = task;
+        }
+
+        public byte[] getDigest() {
+            return task != null ? task.join() : digest;
+        }
+    }
+
+    /**
+     * Hashes a file, symbolic link or directory tree
+     */
+    protected class HashTask extends RecursiveTask<byte[]> {
+        private final Path path;
+        private final BasicFileAttributes attributes;
+
+        public HashTask(Path path) {
+            this(path, null);
+        }
+
+        public HashTask(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.attributes = attributes;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                BasicFileAttributes attributes = this.attributes;
+                if (attributes == null) {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+                if (!attributes.isDirectory()) {
+                    return hashFile(path, attributes);
+                }
+                TreeMap<String, Entry> children = new TreeMap<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                    for (Path child : entries) {
+                        children.put(child.getFileName().toString(), createEntry(child));
+                    }
+                }
+                return combine(children);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Hashes the named files and directories of a base directory
+     */
+    protected class HashNamesTask extends RecursiveTask<byte[]> {
+        private final Path baseDir;
+        private final Collection<String> names;
+
+        public HashNamesTask(Path baseDir, Collection<String> names) {
+            this.baseDir = baseDir;
+            this.names = names;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                TreeMap<String, Entry> children = new TreeMap<>();
+                for (String name : names) {
+                    children.put(name, createEntry(baseDir.resolve(name)));
+                }
+                return combine(children);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
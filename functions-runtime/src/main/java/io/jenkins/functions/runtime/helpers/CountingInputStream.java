@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which counts the bytes read
+ */
+public class CountingInputStream extends FilterInputStream {
+    private volatile long count;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int answer = super.read();
+        if (answer >= 0) {
+            count++;
+        }
+        return answer;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int answer = super.read(b, off, len);
+        if (answer > 0) {
+            count += answer;
+        }
+        return answer;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long answer = super.skip(n);
+        count += answer;
+        return answer;
+    }
+
+    /**
+     * Returns the number of bytes read so far
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of environment variables made of a chain of override layers on top of the environment
+ * of the current process.
+ * <br>
+ * Adding a layer only copies the new overrides so nested blocks which add a few variables are cheap even with a
+ * large CI environment. The overrides of a chain of layers are flattened once and cached so that launching many
+ * processes with the same environment only has to apply the cached {@link #getOverrides()} to each {@link ProcessBuilder}.
+ */
+public final class Environment {
+    private static final Environment SYSTEM = new Environment(null, Collections.emptyMap());
+
+    private final Environment parent;
+    private final Map<String, String> layer;
+    private volatile Map<String, String> overrides;
+
+    private Environment(Environment parent, Map<String, String> layer) {
+        this.parent = parent;
+        this.layer = layer;
+        if (parent == null) {
+            this.overrides = layer;
+        }
+    }
+
+    /**
+     * Returns the environment of the current process with no overrides
+     */
+    public static Environment getSystem() {
+        return SYSTEM;
+    }
+
+    /**
+     * Returns the environment of the current process with the given overrides
+     */
+    public static Environment of(Map<String, String> overrides) {
+        return SYSTEM.withOverrides(overrides);
+    }
+
+    @Override
+    public String toString() {
+        return "Environment{" + getOverrides().keySet() + "}";
+    }
+
+    /**
+     * Returns a child environment with the given variables added or replaced
+     */
+    public Environment withOverrides(Map<String, String> overrides) {
+        if (overrides == null || overrides.isEmpty()) {
+            return this;
+        }
+        return new Environment(this, Collections.unmodifiableMap(new HashMap<>(overrides)));
+    }
+
+    /**
+     * Returns a child environment with the given variable added or replaced
+     */
+    public Environment withOverride(String name, String value) {
+        return new Environment(this, Collections.singletonMap(name, value));
+    }
+
+    /**
+     * Returns the value of the given variable or null if it is not defined
+     */
+    public String get(String name) {
+        for (Environment environment = this; environment != null; environment = environment.parent) {
+            Map<String, String> flattened = environment.overrides;
+            if (flattened != null) {
+                String value = flattened.get(name);
+                return value != null ? value : System.getenv(name);
+            }
+            String value = environment.layer.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return System.getenv(name);
+    }
+
+    /**
+     * Returns the variables which override those of the current process; the map is cached and cannot be modified
+     */
+    public Map<String, String> getOverrides() {
+        Map<String, String> answer = overrides;
+        if (answer == null) {
+            Map<String, String> parentOverrides = parent.getOverrides();
+            if (parentOverrides.isEmpty()) {
+                answer = layer;
+            } else {
+                Map<String, String> map = new HashMap<>(parentOverrides);
+                map.putAll(layer);
+                answer = Collections.unmodifiableMap(map);
+            }
+            overrides = answer;
+        }
+        return answer;
+    }
+}
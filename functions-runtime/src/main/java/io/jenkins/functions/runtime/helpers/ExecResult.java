@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The exit code and resource usage of a process. Resource usage which could not be measured on this platform is -1.
+ */
+public class ExecResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String commandLine;
+    private final int exitCode;
+    private final long wallTimeNanos;
+    private final long userCpuNanos;
+    private final long systemCpuNanos;
+    private final long peakRssBytes;
+    private final long outputBytes;
+    private final long errorBytes;
+    private final String killReason;
+
+    public ExecResult(String commandLine, int exitCode, long wallTimeNanos, long userCpuNanos, long systemCpuNanos, long peakRssBytes, long outputBytes, long errorBytes) {
+        this(commandLine, exitCode, wallTimeNanos, userCpuNanos, systemCpuNanos, peakRssBytes, outputBytes, errorBytes, null);
+    }
+
+    public ExecResult(String commandLine, int exitCode, long wallTimeNanos, long userCpuNanos, long systemCpuNanos, long peakRssBytes, long outputBytes, long errorBytes, String killReason) {
+        this.commandLine = commandLine;
+        this.exitCode = exitCode;
+        this.wallTimeNanos = wallTimeNanos;
+        this.userCpuNanos = userCpuNanos;
+        this.systemCpuNanos = systemCpuNanos;
+        this.peakRssBytes = peakRssBytes;
+        this.outputBytes = outputBytes;
+        this.errorBytes = errorBytes;
+        this.killReason = killReason;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecResult{" +
+                "commandLine='" + commandLine + '\'' +
+                ", exitCode=" + exitCode +
+                ", wallTime=" + TimeUnit.NANOSECONDS.toMillis(wallTimeNanos) + "ms" +
+                ", userCpu=" + TimeUnit.NANOSECONDS.toMillis(userCpuNanos) + "ms" +
+                ", systemCpu=" + TimeUnit.NANOSECONDS.toMillis(systemCpuNanos) + "ms" +
+                ", peakRss=" + peakRssBytes +
+                ", outputBytes=" + outputBytes +
+                ", errorBytes=" + errorBytes +
+                (killReason != null ? ", killed='" + killReason + '\'' : "") +
+                '}';
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0 && killReason == null;
+    }
+
+    /**
+     * Returns true if we killed the process; e.g. because it timed out
+     */
+    public boolean isKilled() {
+        return killReason != null;
+    }
+
+    /**
+     * Returns why we killed the process or null if it was not killed
+     */
+    public String getKillReason() {
+        return killReason;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getUserCpuNanos() {
+        return userCpuNanos;
+    }
+
+    public long getSystemCpuNanos() {
+        return systemCpuNanos;
+    }
+
+    /**
+     * Returns the user and system CPU time or -1 if it could not be measured
+     */
+    public long getCpuNanos() {
+        if (userCpuNanos < 0 || systemCpuNanos < 0) {
+            return -1;
+        }
+        return userCpuNanos + systemCpuNanos;
+    }
+
+    /**
+     * Returns the peak resident set size of the process or -1 if it could not be measured
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    /**
+     * Returns the number of bytes written to standard output or -1 if the output was not read by us
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * Returns the number of bytes written to standard error or -1 if the errors were not read by us
+     */
+    public long getErrorBytes() {
+        return errorBytes;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies files and directory trees as bytes without decoding them.
+ * <br>
+ * File contents are copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * which lets the operating system copy the data without passing it through the heap. Optionally files are hard linked
+ * rather than copied when the source and target are on the same file system; which is only safe if neither file is
+ * modified in place afterwards. Directory trees are copied in parallel on a fork join pool and symbolic links are
+ * copied as links rather than followed.
+ */
+public class FileCopier {
+    private boolean hardLinks;
+    private boolean preserveAttributes;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Copies the file or directory tree replacing any existing files
+     *
+     * @return the number of files copied
+     */
+    public long copy(File source, File target) throws IOException {
+        long before = files.sum();
+        Path from = source.toPath();
+        Path to = target.toPath();
+        if (to.toAbsolutePath().normalize().startsWith(from.toAbsolutePath().normalize())) {
+            throw new IOException("Cannot copy " + source + " into itself: " + target);
+        }
+        BasicFileAttributes attributes = Files.readAttributes(from, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            Path parent = to.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            copyFile(from, to, attributes);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+            try {
+                pool.invoke(new CopyTreeTask(from, to, attributes, true));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return files.sum() - before;
+    }
+
+    /**
+     * Copies a file or symbolic link replacing any existing file
+     */
+    protected void copyFile(Path from, Path to, BasicFileAttributes attributes) throws IOException {
+        Files.deleteIfExists(to);
+        if (attributes.isSymbolicLink()) {
+            Files.createSymbolicLink(to, Files.readSymbolicLink(from));
+            files.increment();
+            return;
+        }
+        if (hardLinks) {
+            try {
+                Files.createLink(to, from);
+                files.increment();
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // hard links are not supported or the target is on a different file system
+            }
+        }
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long count = in.transferTo(position, size - position, out);
+                if (count <= 0) {
+                    // the file was truncated while copying
+                    break;
+                }
+                position += count;
+            }
+            bytes.add(position);
+        }
+        if (preserveAttributes) {
+            copyAttributes(from, to, attributes);
+        }
+        files.increment();
+    }
+
+    /**
+     * Creates a directory of the tree replacing any file or symbolic link in its place; otherwise the children would be
+     * written wherever the link points
+     *
+     * @return true if the directory was created rather than already existing
+     */
+    protected static boolean createDirectory(Path dir) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes != null) {
+            if (attributes.isDirectory()) {
+                return false;
+            }
+            Files.delete(dir);
+        }
+        Files.createDirectory(dir);
+        return true;
+    }
+
+    protected void copyAttributes(Path from, Path to, BasicFileAttributes attributes) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(to, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null) {
+            PosixFileAttributes posixAttributes = Files.readAttributes(from, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            view.setPermissions(posixAttributes.permissions());
+        }
+        Files.getFileAttributeView(to, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).
+                setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), null);
+    }
+
+    /**
+     * Returns the total number of files copied by this copier
+     */
+    public long getFiles() {
+        return files.sum();
+    }
+
+    /**
+     * Returns the total number of bytes copied by this copier; excluding hard linked files
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public boolean isHardLinks() {
+        return hardLinks;
+    }
+
+    /**
+     * Hard links files rather than copying them where possible
+     */
+    public void setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    public boolean isPreserveAttributes() {
+        return preserveAttributes;
+    }
+
+    /**
+     * Copies the permissions and modification times of files and of the directories which the copy creates
+     */
+    public void setPreserveAttributes(boolean preserveAttributes) {
+        this.preserveAttributes = preserveAttributes;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    protected class CopyTreeTask extends RecursiveAction {
+        private final Path from;
+        private final Path to;
+        private final BasicFileAttributes attributes;
+        private final boolean root;
+
+        public CopyTreeTask(Path from, Path to, BasicFileAttributes attributes, boolean root) {
+            this.from = from;
+            this.to = to;
+            this.attributes = attributes;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                boolean created;
+                if (root) {
+                    // the target given by the caller may be a link to a directory such as a workspace
+                    created = !Files.isDirectory(to);
+                    Files.createDirectories(to);
+                } else {
+                    created = createDirectory(to);
+                }
+                List<CopyTreeTask> children = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(from)) {
+                    for (Path path : entries) {
+                        Path target = to.resolve(path.getFileName().toString());
+                        BasicFileAttributes childAttributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (childAttributes.isDirectory()) {
+                            CopyTreeTask child = new CopyTreeTask(path, target, childAttributes, false);
+                            child.fork();
+                            children.add(child);
+                        } else {
+                            copyFile(path, target, childAttributes);
+                        }
+                    }
+                }
+                for (CopyTreeTask child : children) {
+                    child.join();
+                }
+                if (preserveAttributes && created) {
+                    // only on directories this copy created; e.g. not on a workspace the outputs of a step are
+                    // restored into. After the children as copying them changes the modified time of the directory
+                    copyAttributes(from, to, attributes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
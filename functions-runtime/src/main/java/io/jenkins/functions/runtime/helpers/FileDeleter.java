@@ -18,6 +18,28 @@ package io.jenkins.functions.runtime.helpers;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Allows a number of files to be deleted using a Java try-with-resources block (try / catch).
@@ -25,8 +47,21 @@ import java.io.IOException;
  * <code>
  * try (new FileDeleter(file1, file2)) { ... }
  * </code>
+ * <br>
+ * Directories are deleted recursively. The contents of a directory are deleted in parallel on a fork join pool;
+ * symbolic links are deleted rather than followed so nothing outside the tree is ever deleted, and read only
+ * files and directories are made writable so that they can be deleted.
  */
 public class FileDeleter implements Closeable {
+    private static final String DELETING_SUFFIX = ".deleting-";
+    private static final Set<File> deleting = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger deleterCounter = new AtomicInteger();
+    private static final ExecutorService deleters = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file-deleter-" + deleterCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final File[] files;
 
     public FileDeleter(File... files) {
@@ -36,8 +71,182 @@ public class FileDeleter implements Closeable {
     @Override
     public void close() throws IOException {
         for (File file : files) {
-            if (file.exists()) {
-                file.delete();
+            deleteRecursively(file);
+        }
+    }
+
+    /**
+     * Deletes the file or directory tree if it exists
+     *
+     * @throws IOException if any file could not be deleted; after trying to delete all the other files
+     */
+    public static void deleteRecursively(File file) throws IOException {
+        Path path = file.toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+        if (attributes.isDirectory()) {
+            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            try {
+                pool.invoke(new DeleteTask(path, failures, true));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            delete(path, failures, true);
+        }
+        IOException failure = failures.poll();
+        if (failure != null) {
+            IOException answer = new IOException("Failed to delete " + file + ": " + failure, failure);
+            for (IOException e : failures) {
+                answer.addSuppressed(e);
+            }
+            throw answer;
+        }
+    }
+
+    /**
+     * Renames the file or directory aside and deletes it in the background so the caller can carry on straight away.
+     * A file or directory of the same name can be created as soon as this method returns. If the file cannot be
+     * renamed then it is deleted before returning. Any files renamed aside in the same directory which were not
+     * deleted; e.g. as the JVM exited, are also deleted.
+     *
+     * @return the background deletion which completes with an exception if any file could not be deleted
+     */
+    public static Future<?> deleteAsync(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            deleteTrash(parent);
+        }
+        if (!Files.exists(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        File trash = new File(parent, "." + file.getName() + DELETING_SUFFIX + UUID.randomUUID());
+        try {
+            Files.move(file.toPath(), trash.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteRecursively(file);
+            return CompletableFuture.completedFuture(null);
+        }
+        deleting.add(trash);
+        return submitDelete(trash);
+    }
+
+    /**
+     * Deletes in the background any files in the directory which were renamed aside by {@link #deleteAsync(File)}
+     * and are not already being deleted by this process
+     *
+     * @return the number of files which are now being deleted
+     */
+    public static int deleteTrash(File dir) {
+        File[] files = dir.listFiles((parent, name) -> isTrash(name));
+        int answer = 0;
+        if (files != null) {
+            for (File file : files) {
+                File trash = file.getAbsoluteFile();
+                if (deleting.add(trash)) {
+                    submitDelete(trash);
+                    answer++;
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns true if the name is of a file which was renamed aside to be deleted by {@link #deleteAsync(File)}
+     */
+    public static boolean isTrash(String name) {
+        return name.startsWith(".") && name.contains(DELETING_SUFFIX);
+    }
+
+    protected static Future<?> submitDelete(File trash) {
+        return deleters.submit(() -> {
+            try {
+                deleteRecursively(trash);
+            } finally {
+                deleting.remove(trash);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the file or empty directory; the permissions of the parent directory are only changed if it is inside
+     * the tree being deleted so that the root of the tree is not deleted from a directory which is read only
+     */
+    protected static void delete(Path path, Queue<IOException> failures, boolean root) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (AccessDeniedException e) {
+            // deleting needs write permission on the parent directory and on some platforms on the file itself
+            try {
+                if (!root) {
+                    makeWritable(path.toAbsolutePath().getParent());
+                }
+                makeWritable(path);
+                Files.deleteIfExists(path);
+            } catch (IOException retryFailure) {
+                failures.add(retryFailure);
+            }
+        } catch (IOException e) {
+            failures.add(e);
+        }
+    }
+
+    protected static void makeWritable(Path path) {
+        if (path != null && !Files.isSymbolicLink(path)) {
+            path.toFile().setWritable(true);
+        }
+    }
+
+    protected static class DeleteTask extends RecursiveAction {
+        private final Path dir;
+        private final Queue<IOException> failures;
+        private final boolean root;
+
+        public DeleteTask(Path dir, Queue<IOException> failures, boolean root) {
+            this.dir = dir;
+            this.failures = failures;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = openDirectory(dir)) {
+                for (Path path : entries) {
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        DeleteTask child = new DeleteTask(path, failures, false);
+                        child.fork();
+                        children.add(child);
+                    } else {
+                        delete(path, failures, false);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                failures.add(e);
+            }
+            for (DeleteTask child : children) {
+                child.join();
+            }
+            delete(dir, failures, root);
+        }
+
+        protected static DirectoryStream<Path> openDirectory(Path dir) throws IOException {
+            try {
+                return Files.newDirectoryStream(dir);
+            } catch (AccessDeniedException e) {
+                // a directory without read or execute permission cannot be listed
+                dir.toFile().setReadable(true);
+                dir.toFile().setExecutable(true);
+                return Files.newDirectoryStream(dir);
             }
         }
     }
@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds the files in a directory tree whose path relative to the directory matches a glob such as
+ * <code>src/**&#47;*.java</code>.
+ * <br>
+ * The glob is compiled once. The walk starts at the literal prefix of the glob and does not descend into directories
+ * which cannot contain a match; nor into excluded directories such as <code>.git</code> and <code>node_modules</code>.
+ * Directories are listed in parallel on a fork join pool and the matching files are streamed to the caller through
+ * a bounded buffer as they are found. Symbolic links are never followed.
+ */
+public class FileFinder {
+    /**
+     * The names which are skipped by default; including the {@link WorkspaceIndex} file so that results do not
+     * depend on whether the workspace is indexed
+     */
+    public static final Set<String> DEFAULT_EXCLUDES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(".git", "node_modules",
+            WorkspaceIndex.INDEX_FILE_NAME, WorkspaceIndex.INDEX_FILE_NAME + ".tmp", CapturedOutput.SPILL_DIR_NAME)));
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private static final Object END = new Object();
+
+    private final File baseDir;
+    private final String glob;
+    private final PathMatcher matcher;
+    private final String literalPrefix;
+    private final List<PathMatcher> segmentMatchers = new ArrayList<>();
+    private final int segmentCount;
+    private Set<String> excludes = DEFAULT_EXCLUDES;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private WorkspaceIndex index;
+
+    public FileFinder(File baseDir, String glob) {
+        this.baseDir = baseDir;
+        this.glob = glob;
+        this.matcher = createMatcher(glob);
+
+        String[] segments = glob.split("/");
+        if (glob.indexOf('{') >= 0 || glob.indexOf('[') >= 0) {
+            // groups and classes may contain a '/' so only prune on the matcher itself
+            this.literalPrefix = "";
+            this.segmentCount = -1;
+        } else {
+            StringBuilder prefix = new StringBuilder();
+            boolean literal = true;
+            boolean bounded = true;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.contains("**")) {
+                    bounded = false;
+                    break;
+                }
+                if (literal && i < segments.length - 1 && !isPattern(segment)) {
+                    if (prefix.length() > 0) {
+                        prefix.append('/');
+                    }
+                    prefix.append(segment);
+                } else {
+                    literal = false;
+                }
+                segmentMatchers.add(createMatcher(segment));
+            }
+            this.literalPrefix = prefix.toString();
+            this.segmentCount = bounded ? segments.length : -1;
+        }
+    }
+
+    /**
+     * Returns the matching files in the order they are found
+     */
+    public List<File> findFiles() {
+        try (Stream<File> stream = stream()) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Returns a lazy stream of the matching files which are found in parallel in the background.
+     * The stream must be closed to stop the search if it is not fully consumed.
+     */
+    public Stream<File> stream() {
+        if (canUseIndex()) {
+            return findInIndex().stream();
+        }
+        Path relativeStart = literalPrefix.isEmpty() ? null : FileSystems.getDefault().getPath(literalPrefix);
+        Path start = relativeStart != null ? baseDir.toPath().resolve(relativeStart) : baseDir.toPath();
+        if (!Files.isDirectory(start)) {
+            return Stream.empty();
+        }
+        Search search = new Search(Math.max(bufferSize, 1));
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        int depth = relativeStart != null ? relativeStart.getNameCount() : 0;
+        pool.execute(() -> {
+            try {
+                new WalkTask(search, start, relativeStart, depth).invoke();
+            } catch (Throwable t) {
+                search.failure = t;
+            } finally {
+                search.end();
+                pool.shutdown();
+            }
+        });
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(search, Spliterator.NONNULL), false).
+                onClose(() -> {
+                    search.cancelled = true;
+                    search.queue.clear();
+                    pool.shutdownNow();
+                });
+    }
+
+    /**
+     * Returns the matching files from the index after refreshing any directories which have changed
+     */
+    protected List<File> findInIndex() {
+        try {
+            // only check the directories the walk would visit
+            index.refresh(literalPrefix, relativeDir -> {
+                Path path = FileSystems.getDefault().getPath(relativeDir);
+                return !isExcluded(path.getFileName().toString()) && canContainMatches(path, path.getNameCount());
+            });
+        } catch (IOException e) {
+            throw new FailedBuildException("Failed to refresh " + index + ": " + e, e);
+        }
+        List<File> answer = new ArrayList<>();
+        Path relativeStart = literalPrefix.isEmpty() ? null : FileSystems.getDefault().getPath(literalPrefix);
+        int depth = relativeStart != null ? relativeStart.getNameCount() : 0;
+        findInIndex(literalPrefix, relativeStart, depth, answer);
+        return answer;
+    }
+
+    protected void findInIndex(String relativeDir, Path relativePath, int depth, List<File> answer) {
+        WorkspaceIndex.Entry entry = index.getEntry(relativeDir);
+        if (entry == null) {
+            return;
+        }
+        for (String name : entry.getFiles()) {
+            Path path = relativePath != null ? relativePath.resolve(name) : FileSystems.getDefault().getPath(name);
+            if (!isExcluded(name) && matcher.matches(path)) {
+                answer.add(new File(baseDir, path.toString()));
+            }
+        }
+        for (String name : entry.getDirectories()) {
+            Path path = relativePath != null ? relativePath.resolve(name) : FileSystems.getDefault().getPath(name);
+            if (!isExcluded(name) && canContainMatches(path, depth + 1)) {
+                findInIndex(WorkspaceIndex.childPath(relativeDir, name), path, depth + 1, answer);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file or directory is skipped; either as one of the excludes or as a directory which is
+     * being deleted in the background by {@link FileDeleter#deleteAsync(File)}
+     */
+    protected boolean isExcluded(String name) {
+        return excludes.contains(name) || FileDeleter.isTrash(name);
+    }
+
+    /**
+     * Returns true if the index covers every file this search could find
+     */
+    protected boolean canUseIndex() {
+        return index != null && excludes.containsAll(index.getExcludes()) &&
+                index.getBaseDir().getAbsoluteFile().equals(baseDir.getAbsoluteFile());
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    public Set<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Sets the names of files and directories which are skipped; defaults to {@link #DEFAULT_EXCLUDES}
+     */
+    public void setExcludes(Set<String> excludes) {
+        this.excludes = excludes != null ? excludes : Collections.emptySet();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public WorkspaceIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the index used to answer queries rather than walking the directory tree; it is ignored if it excludes
+     * files which this search would find
+     */
+    public void setIndex(WorkspaceIndex index) {
+        this.index = index;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns true if the files below the directory at the given relative path and depth may match the glob
+     */
+    protected boolean canContainMatches(Path relativeDir, int depth) {
+        if (segmentCount >= 0 && depth >= segmentCount) {
+            return false;
+        }
+        int index = depth - 1;
+        return index >= segmentMatchers.size() || segmentMatchers.get(index).matches(relativeDir.getFileName());
+    }
+
+    /**
+     * Creates a matcher for the glob where, as in Ant and the <code>findFiles</code> step, a <code>**&#47;</code>
+     * segment matches zero or more directories; whereas a java glob requires at least one directory
+     */
+    protected static PathMatcher createMatcher(String glob) {
+        List<String> globs = new ArrayList<>();
+        addZeroDirectoryGlobs(glob, 0, globs);
+        if (globs.size() == 1) {
+            return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        }
+        List<PathMatcher> matchers = new ArrayList<>(globs.size());
+        for (String variant : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + variant));
+        }
+        return path -> {
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Adds the glob and each variant of it with any of the <code>**&#47;</code> segments from the given index removed
+     */
+    protected static void addZeroDirectoryGlobs(String glob, int fromIndex, List<String> globs) {
+        int index = glob.indexOf("**/", fromIndex);
+        while (index > 0 && glob.charAt(index - 1) != '/') {
+            index = glob.indexOf("**/", index + 1);
+        }
+        if (index < 0) {
+            globs.add(glob);
+            return;
+        }
+        addZeroDirectoryGlobs(glob, index + 3, globs);
+        addZeroDirectoryGlobs(glob.substring(0, index) + glob.substring(index + 3), index, globs);
+    }
+
+    protected static boolean isPattern(String segment) {
+        for (int i = 0, size = segment.length(); i < size; i++) {
+            switch (segment.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                case '\\':
+                    return true;
+                default:
+            }
+        }
+        return false;
+    }
+
+    protected class WalkTask extends RecursiveAction {
+        private final Search search;
+        private final Path dir;
+        private final Path relativeDir;
+        private final int depth;
+
+        public WalkTask(Search search, Path dir, Path relativeDir, int depth) {
+            this.search = search;
+            this.dir = dir;
+            this.relativeDir = relativeDir;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path path : entries) {
+                    if (search.cancelled) {
+                        return;
+                    }
+                    Path name = path.getFileName();
+                    if (isExcluded(name.toString())) {
+                        continue;
+                    }
+                    Path relativePath = relativeDir != null ? relativeDir.resolve(name) : name;
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        // deleted while walking
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (canContainMatches(relativePath, depth + 1)) {
+                            WalkTask child = new WalkTask(search, path, relativePath, depth + 1);
+                            child.fork();
+                            children.add(child);
+                        }
+                    } else if (matcher.matches(relativePath)) {
+                        search.put(path.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                // the directory was deleted or cannot be read
+            }
+            for (WalkTask child : children) {
+                child.join();
+            }
+        }
+    }
+
+    /**
+     * The buffer between the walking threads and the consumer of the results
+     */
+    protected static class Search implements Iterator<File> {
+        private final BlockingQueue<Object> queue;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+        private Object next;
+
+        public Search(int bufferSize) {
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                if (cancelled) {
+                    return false;
+                }
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                    return false;
+                }
+            }
+            if (next == END) {
+                Throwable t = failure;
+                if (t != null) {
+                    failure = null;
+                    throw new FailedBuildException("Failed to find files: " + t, t);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File answer = (File) next;
+            next = null;
+            return answer;
+        }
+
+        protected void put(File file) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        while (!cancelled && !queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+                            // wait for the consumer
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return cancelled || queue.offer(file);
+                    }
+                });
+            } catch (InterruptedException e) {
+                cancelled = true;
+            }
+        }
+
+        protected void end() {
+            while (!cancelled) {
+                try {
+                    if (queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -23,18 +23,89 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  */
 public class FileHelper {
+    /**
+     * Files of at least this many bytes are memory mapped rather than read into a byte array
+     */
+    public static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
     public static String readFully(File file) throws IOException {
+        return readFully(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Reads the file using the given charset or returns null if it is not a file. Large files are memory mapped
+     * and decoded directly from the mapped pages so the bytes are never copied onto the heap.
+     */
+    public static String readFully(File file, Charset charset) throws IOException {
         if (!file.isFile()) {
             return null;
         }
-        try (InputStream in = new FileInputStream(file)) {
-            return readFully(in);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAPPED_READ_THRESHOLD) {
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("File " + file + " is too large to read into a string: " + size + " bytes");
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return charset.decode(buffer).toString();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            return new String(buffer.array(), 0, buffer.position(), charset);
+        }
+    }
+
+    /**
+     * Returns a lazy stream of the lines of the file which reads the file as the stream is consumed so that
+     * memory use does not depend on the size of the file. The stream must be closed.
+     */
+    public static Stream<String> readLines(File file, Charset charset) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), charset));
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Reads the file in chunks passing each chunk to the consumer until the consumer returns false. The same buffer
+     * is reused for each chunk so the consumer must not keep a reference to it.
+     *
+     * @return the number of bytes read
+     */
+    public static long forEachChunk(File file, int chunkSize, Predicate<ByteBuffer> consumer) throws IOException {
+        long answer = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                answer += buffer.remaining();
+                if (!consumer.test(buffer)) {
+                    break;
+                }
+                buffer.clear();
+            }
         }
+        return answer;
     }
 
     public static String readFully(InputStream in) throws IOException {
@@ -51,6 +122,25 @@ public class FileHelper {
         }
     }
 
+    /**
+     * Copies the bytes of the file or directory tree to the target replacing any existing files
+     *
+     * @param preserveAttributes whether to copy the permissions and modification times
+     * @return the number of files copied
+     */
+    public static long copyTree(File source, File target, boolean preserveAttributes) throws IOException {
+        FileCopier copier = new FileCopier();
+        copier.setPreserveAttributes(preserveAttributes);
+        return copier.copy(source, target);
+    }
+
+    /**
+     * Copies the bytes of the file to the target replacing any existing file
+     */
+    public static void copyFile(File source, File target) throws IOException {
+        new FileCopier().copy(source, target);
+    }
+
     public static void copy(Reader reader, Writer writer) throws IOException {
         char[] buffer = new char[8192];
         int len;
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Reads the lines of a process output stream into a reusable byte buffer and passes each line to a
+ * {@link LineSink} as a slice of the buffer as soon as it has been read.
+ * <br>
+ * Lines are found by scanning for <code>'\n'</code> bytes which is safe for UTF-8 and the other ASCII compatible
+ * charsets used by processes; so no characters or strings are created unless the sink decodes them.
+ * A trailing <code>'\r'</code> is removed from each line.
+ */
+public class LinePumper implements Callable<Long> {
+    private final InputStream inputStream;
+    private final LineSink sink;
+    private final BufferPool bufferPool;
+
+    public LinePumper(InputStream inputStream, LineSink sink) {
+        this(inputStream, sink, BufferPool.getInstance());
+    }
+
+    public LinePumper(InputStream inputStream, LineSink sink, BufferPool bufferPool) {
+        this.inputStream = inputStream;
+        this.sink = sink;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Pumps the stream until it is closed returning the number of lines read
+     */
+    @Override
+    public Long call() throws IOException {
+        long lines = 0;
+        byte[] pooled = bufferPool.acquire();
+        byte[] buffer = pooled;
+        int filled = 0;
+        try {
+            while (true) {
+                if (filled == buffer.length) {
+                    // a line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int length = inputStream.read(buffer, filled, buffer.length - filled);
+                if (length < 0) {
+                    break;
+                }
+                int start = 0;
+                int end = filled + length;
+                for (int i = filled; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        writeLine(buffer, start, i);
+                        lines++;
+                        start = i + 1;
+                    }
+                }
+                filled = end - start;
+                if (start > 0 && filled > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, filled);
+                }
+            }
+            if (filled > 0) {
+                writeLine(buffer, 0, filled);
+                lines++;
+            }
+        } finally {
+            bufferPool.release(pooled);
+            inputStream.close();
+        }
+        return lines;
+    }
+
+    protected void writeLine(byte[] buffer, int start, int end) throws IOException {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        sink.line(buffer, start, end - start);
+    }
+}
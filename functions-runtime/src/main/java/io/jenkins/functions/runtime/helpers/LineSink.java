@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Receives each line of a process output as a slice of bytes without the line terminator.
+ * <br>
+ * The bytes are only valid for the duration of the call as the buffer is reused for the following lines.
+ */
+@FunctionalInterface
+public interface LineSink {
+    void line(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Returns a sink which writes each line straight to the stream followed by the line separator
+     * without decoding the bytes into characters
+     */
+    static LineSink of(OutputStream stream) {
+        return of(stream, null);
+    }
+
+    /**
+     * Returns a sink which writes each line to the stream after the given prefix followed by the line separator.
+     * Each line is written while holding the lock of the stream so lines are never interleaved with other writers
+     * of a {@link java.io.PrintStream}.
+     */
+    static LineSink of(OutputStream stream, String prefix) {
+        byte[] prefixBytes = prefix != null ? prefix.getBytes(Charset.defaultCharset()) : null;
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        return (bytes, offset, length) -> {
+            synchronized (stream) {
+                if (prefixBytes != null) {
+                    stream.write(prefixBytes);
+                }
+                stream.write(bytes, offset, length);
+                stream.write(separator);
+            }
+        };
+    }
+
+    /**
+     * Returns a sink which decodes each line for a consumer which needs characters
+     */
+    static LineSink decoding(Consumer<String> consumer, Charset charset) {
+        return (bytes, offset, length) -> consumer.accept(new String(bytes, offset, length, charset));
+    }
+
+    /**
+     * Returns a sink which logs each line at info level; writing the bytes straight to the output stream of the
+     * logger unless the logger customizes {@link Logger#info(String)}
+     */
+    static LineSink info(Logger logger) {
+        if (Loggers.isOverridden(logger, "info")) {
+            return decoding(logger::info, Charset.defaultCharset());
+        }
+        return of(logger.out());
+    }
+
+    /**
+     * Returns a sink which logs each line at error level; writing the bytes straight to the error stream of the
+     * logger unless the logger customizes {@link Logger#error(String)}
+     */
+    static LineSink error(Logger logger) {
+        if (Loggers.isOverridden(logger, "error")) {
+            return decoding(logger::error, Charset.defaultCharset());
+        }
+        return of(logger.err(), "ERROR: ");
+    }
+}
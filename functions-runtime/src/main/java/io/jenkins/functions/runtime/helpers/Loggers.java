@@ -19,10 +19,12 @@ import io.jenkins.functions.Logger;
 import io.jenkins.functions.support.DefaultLogger;
 
 import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  */
 public class Loggers {
+    private static final ConcurrentHashMap<String, Boolean> overriddenMethods = new ConcurrentHashMap<>();
 
     public static void echo(Logger logger, String message) {
         notNull(logger).out().println(message);
@@ -38,11 +40,25 @@ public class Loggers {
         t.printStackTrace(err);
     }
 
-    protected static Logger notNull(Logger logger) {
+    public static Logger notNull(Logger logger) {
         if (logger == null) {
             logger = DefaultLogger.getInstance();
         }
         return logger;
     }
 
+    /**
+     * Returns true if the class of the logger overrides the given logging method taking a message
+     */
+    public static boolean isOverridden(Logger logger, String methodName) {
+        Class<? extends Logger> type = logger.getClass();
+        return overriddenMethods.computeIfAbsent(type.getName() + "." + methodName, key -> {
+            try {
+                return type.getMethod(methodName, String.class).getDeclaringClass() != Logger.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        });
+    }
+
 }
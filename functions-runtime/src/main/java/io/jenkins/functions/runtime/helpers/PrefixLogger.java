@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A logger which prefixes each line written to another logger; such as with the name of a parallel branch.
+ * <br>
+ * Each line is written to the underlying logger in one write so that lines logged concurrently by different
+ * branches are not interleaved within a line.
+ */
+public class PrefixLogger extends Logger implements AutoCloseable {
+    private final Logger delegate;
+    private final String prefix;
+    private final PrefixOutputStream outStream;
+    private final PrefixOutputStream errStream;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public PrefixLogger(Logger delegate, String prefix) {
+        this.delegate = delegate;
+        this.prefix = prefix;
+        this.outStream = new PrefixOutputStream(delegate.out(), prefix);
+        this.errStream = new PrefixOutputStream(delegate.err(), prefix);
+        this.out = new PrintStream(outStream, true);
+        this.err = new PrintStream(errStream, true);
+    }
+
+    @Override
+    public String toString() {
+        return "PrefixLogger{" + prefix + "}";
+    }
+
+    @Override
+    public PrintStream out() {
+        return out;
+    }
+
+    @Override
+    public PrintStream err() {
+        return err;
+    }
+
+    /**
+     * Writes any partial lines
+     */
+    @Override
+    public void close() {
+        out.flush();
+        err.flush();
+        outStream.writePartialLine();
+        errStream.writePartialLine();
+    }
+
+    public Logger getDelegate() {
+        return delegate;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    protected static class PrefixOutputStream extends OutputStream {
+        private final PrintStream delegate;
+        private final byte[] prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        public PrefixOutputStream(PrintStream delegate, String prefix) {
+            this.delegate = delegate;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            line.write(b);
+            if (b == '\n') {
+                writeLine();
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int start = off;
+            for (int i = off, end = off + len; i < end; i++) {
+                if (b[i] == '\n') {
+                    line.write(b, start, i + 1 - start);
+                    writeLine();
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, off + len - start);
+        }
+
+        public synchronized void writePartialLine() {
+            if (line.size() > 0) {
+                line.write('\n');
+                writeLine();
+            }
+        }
+
+        protected void writeLine() {
+            byte[] bytes = new byte[prefix.length + line.size()];
+            System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+            byte[] text = line.toByteArray();
+            System.arraycopy(text, 0, bytes, prefix.length, text.length);
+            line.reset();
+            delegate.write(bytes, 0, bytes.length);
+            delegate.flush();
+        }
+    }
+}
@@ -16,30 +16,79 @@
 package io.jenkins.functions.runtime.helpers;
 
 import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.metrics.StepMetrics;
+import io.jenkins.functions.runtime.trace.Span;
+import io.jenkins.functions.runtime.trace.Tracer;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  */
 public class ProcessHelper {
+    private static final AtomicInteger pumpCounter = new AtomicInteger();
+    private static final ExecutorService pumps = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "process-pump-" + pumpCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledExecutorService watchdogs = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "process-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static String runCommandCaptureOutput(File dir, Logger logger, Map<String, String> environmentVariables, String... commands) throws IOException {
+        return runCommandCaptureOutput(dir, logger, environmentVariables, 0, TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Runs the command returning its output. If the command does not complete within the timeout then it is
+     * killed along with all of its descendants.
+     *
+     * @param timeout the maximum time to wait for the command or zero to wait forever
+     * @throws IOException if the command fails or times out
+     */
+    public static String runCommandCaptureOutput(File dir, Logger logger, Map<String, String> environmentVariables, long timeout, TimeUnit unit, String... commands) throws IOException {
         ProcessBuilder builder = new ProcessBuilder(commands);
         builder.directory(dir);
         applyEnvironmentVariables(builder, environmentVariables);
 
-        StringWriter outputWriter = new StringWriter();
-        PrintWriter outputPrintWriter = new PrintWriter(outputWriter);
-        int result = doRunCommandAndCaptureOutput(logger, outputPrintWriter, builder, commands);
-        outputPrintWriter.close();
-        String output = outputWriter.toString();
+        // the output is captured as bytes and decoded once rather than creating a string for each line
+        ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
+        ExecResult execResult = execute(logger, builder, commands, LineSink.of(outputBytes), LineSink.error(logger), unit.toMillis(timeout));
+        String output = outputBytes.toString();
+        if (execResult.isKilled()) {
+            logOutput(logger, output, false);
+            throw new IOException("Command " + String.join(" ", commands) + " was killed: " + execResult.getKillReason());
+        }
+        int result = execResult.getExitCode();
         if (result != 0) {
             logger.warn("Failed to run commands " + String.join(" ", commands) + " result: " + result);
             logOutput(logger, output, false);
@@ -48,6 +97,169 @@ public class ProcessHelper {
         return output;
     }
 
+    /**
+     * Runs the command capturing its output keeping at most <code>memoryLimit</code> characters in memory and
+     * spilling the rest to a temporary file in <code>spillDir</code>. The returned output must be closed to
+     * delete the temporary file.
+     *
+     * @throws IOException if the command fails
+     */
+    public static CapturedOutput runCommandCaptureOutput(File dir, Logger logger, Map<String, String> environmentVariables, File spillDir, int memoryLimit, String... commands) throws IOException {
+        return runCommandCaptureOutput(dir, logger, environmentVariables, spillDir, memoryLimit, 0, TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Runs the command capturing its output keeping at most <code>memoryLimit</code> characters in memory and
+     * spilling the rest to a temporary file in <code>spillDir</code>. If the command does not complete within the
+     * timeout then it is killed along with all of its descendants. The returned output must be closed to
+     * delete the temporary file.
+     *
+     * @param timeout the maximum time to wait for the command or zero to wait forever
+     * @throws IOException if the command fails or times out
+     */
+    public static CapturedOutput runCommandCaptureOutput(File dir, Logger logger, Map<String, String> environmentVariables, File spillDir, int memoryLimit, long timeout, TimeUnit unit, String... commands) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(commands);
+        builder.directory(dir);
+        applyEnvironmentVariables(builder, environmentVariables);
+
+        CapturedOutput output = new CapturedOutput(spillDir, memoryLimit);
+        try {
+            ExecResult execResult = execute(logger, builder, commands, decoding(line -> {
+                try {
+                    output.appendLine(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }), LineSink.error(logger), unit.toMillis(timeout));
+            output.complete();
+            if (execResult.isKilled()) {
+                logOutput(logger, output);
+                throw new IOException("Command " + String.join(" ", commands) + " was killed: " + execResult.getKillReason());
+            }
+            int result = execResult.getExitCode();
+            if (result != 0) {
+                logger.warn("Failed to run commands " + String.join(" ", commands) + " result: " + result);
+                logOutput(logger, output);
+                throw new IOException("Failed to run commands " + String.join(" ", commands) + " result: " + result);
+            }
+            return output;
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the command returning its output as a lazy stream of lines which are read as the process produces them
+     * so that memory use is bounded no matter how much output the command produces. Errors are logged.
+     * <br>
+     * The stream must be closed; closing it before the end of the output kills the process. If the process completed
+     * with a non zero exit code then closing the stream throws a {@link FailedBuildException}.
+     */
+    public static Stream<String> runCommandStreamOutput(File dir, Logger logger, Map<String, String> environmentVariables, String... commands) throws IOException {
+        return runCommandStreamOutput(dir, logger, environmentVariables, 0, TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Starts the command returning its output as a lazy stream of lines which are read as the process produces them.
+     * If the command does not complete within the timeout then it is killed along with all of its descendants, which
+     * ends the stream, and closing the stream throws a {@link FailedBuildException}.
+     *
+     * @param timeout the maximum time the command may run or zero to let it run forever
+     * @see #runCommandStreamOutput(File, Logger, Map, String...)
+     */
+    public static Stream<String> runCommandStreamOutput(File dir, Logger logger, Map<String, String> environmentVariables, long timeout, TimeUnit unit, String... commands) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(commands);
+        builder.directory(dir);
+        applyEnvironmentVariables(builder, environmentVariables);
+
+        String line = getCommandLine(commands);
+        logger.info("$> " + line);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        ProcessSampler sampler = new ProcessSampler(process);
+        CountingInputStream outputStream = new CountingInputStream(process.getInputStream());
+        CountingInputStream errorStream = new CountingInputStream(process.getErrorStream());
+        Future<Long> errors = pump(errorStream, LineSink.error(logger));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(outputStream));
+        AtomicBoolean ended = new AtomicBoolean();
+        AtomicReference<String> killReason = new AtomicReference<>();
+        long timeoutMillis = unit.toMillis(timeout);
+        ScheduledFuture<?> watchdog = timeoutMillis > 0 ? watchdogs.schedule(() -> {
+            if (process.isAlive()) {
+                killReason.set("timed out after " + timeoutMillis + "ms");
+                logger.warn("Killing command " + line + " as it " + killReason.get());
+                ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+        Iterator<String> lines = reader.lines().iterator();
+        Iterator<String> iterator = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                boolean answer = lines.hasNext();
+                if (!answer) {
+                    ended.set(true);
+                }
+                return answer;
+            }
+
+            @Override
+            public String next() {
+                return lines.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).
+                onClose(() -> {
+                    if (watchdog != null) {
+                        watchdog.cancel(false);
+                    }
+                    int exitCode = closeStreamedProcess(logger, builder, line, process, reader, errors, ended.get());
+                    sampler.close();
+                    StepMetrics.getInstance().recordProcess(new ExecResult(line, exitCode, System.nanoTime() - start,
+                            sampler.getUserCpuNanos(), sampler.getSystemCpuNanos(), sampler.getPeakRssBytes(),
+                            outputStream.getCount(), errorStream.getCount(), killReason.get()));
+                    if (killReason.get() != null) {
+                        throw new FailedBuildException("Command " + line + " was killed: " + killReason.get());
+                    }
+                    if (exitCode > 0) {
+                        throw new FailedBuildException("Failed to run command " + line + " result: " + exitCode);
+                    }
+                });
+    }
+
+    /**
+     * Runs the command passing each line of its output to the consumer as the process produces it until the consumer
+     * returns false; in which case the process is killed. Errors are logged.
+     *
+     * @return the number of lines consumed
+     * @throws FailedBuildException if the process completed with a non zero exit code
+     */
+    public static long runCommandForEachLine(File dir, Logger logger, Map<String, String> environmentVariables, Predicate<String> consumer, String... commands) throws IOException {
+        return runCommandForEachLine(dir, logger, environmentVariables, consumer, 0, TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Runs the command passing each line of its output to the consumer as the process produces it until the consumer
+     * returns false or the timeout passes; in which case the process is killed. Errors are logged.
+     *
+     * @param timeout the maximum time the command may run or zero to let it run forever
+     * @return the number of lines consumed
+     * @throws FailedBuildException if the process completed with a non zero exit code or timed out
+     */
+    public static long runCommandForEachLine(File dir, Logger logger, Map<String, String> environmentVariables, Predicate<String> consumer, long timeout, TimeUnit unit, String... commands) throws IOException {
+        long count = 0;
+        try (Stream<String> lines = runCommandStreamOutput(dir, logger, environmentVariables, timeout, unit, commands)) {
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                count++;
+                if (!consumer.test(iterator.next())) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
     public static int runCommand(File dir, Logger logger, Map<String, String> environmentVariables, File outputFile, File errorFile, String... commands) {
         ProcessBuilder builder = new ProcessBuilder(commands);
         builder.directory(dir);
@@ -57,6 +269,36 @@ public class ProcessHelper {
         return doRunCommand(logger, builder, commands);
     }
 
+    /**
+     * Runs the command logging its output and returning its exit code and resource usage
+     */
+    public static ExecResult runCommandWithResult(File dir, Logger logger, Map<String, String> environmentVariables, String... commands) {
+        return runCommandWithResult(dir, logger, environmentVariables, 0, TimeUnit.MILLISECONDS, commands);
+    }
+
+    /**
+     * Runs the command logging its output and returning its exit code and resource usage. If the command does not
+     * complete within the timeout then it is killed along with all of its descendants.
+     *
+     * @param timeout the maximum time to wait for the command or zero to wait forever
+     */
+    public static ExecResult runCommandWithResult(File dir, Logger logger, Map<String, String> environmentVariables, long timeout, TimeUnit unit, String... commands) {
+        ProcessBuilder builder = new ProcessBuilder(commands);
+        builder.directory(dir);
+        applyEnvironmentVariables(builder, environmentVariables);
+        return execute(logger, builder, commands, LineSink.info(logger), LineSink.error(logger), unit.toMillis(timeout));
+    }
+
+    /**
+     * Runs the command logging its output and returning its exit code. If the command does not complete within the
+     * timeout then it is killed along with all of its descendants.
+     *
+     * @param timeout the maximum time to wait for the command or zero to wait forever
+     */
+    public static int runCommand(File dir, Logger logger, Map<String, String> environmentVariables, long timeout, TimeUnit unit, String... commands) {
+        return runCommandWithResult(dir, logger, environmentVariables, timeout, unit, commands).getExitCode();
+    }
+
     public static int runCommand(File dir, Logger logger, Map<String, String> environmentVariables, String[] commands) {
         ProcessBuilder builder = new ProcessBuilder(commands);
         builder.directory(dir);
@@ -66,102 +308,262 @@ public class ProcessHelper {
 
     protected static void logOutput(Logger log, String output, boolean error) {
         if (Strings.notEmpty(output)) {
-            String[] lines = output.split("\n");
-            for (String line : lines) {
+            int start = 0;
+            int length = output.length();
+            while (start < length) {
+                int end = output.indexOf('\n', start);
+                if (end < 0) {
+                    end = length;
+                }
+                String line = output.substring(start, end);
                 if (error) {
                     log.error(line);
                 } else {
                     log.info(line);
                 }
+                start = end + 1;
             }
         }
     }
 
-    protected static void applyEnvironmentVariables(ProcessBuilder builder, Map<String, String> environmentVariables) {
-        if (environmentVariables != null) {
-            for (Map.Entry<String, String> entry : environmentVariables.entrySet()) {
-                builder.environment().put(entry.getKey(), entry.getValue());
+    /**
+     * Logs the lines of the captured output; which is already decoded so is read as characters
+     */
+    protected static void logOutput(Logger log, CapturedOutput output) throws IOException {
+        try (BufferedReader reader = new BufferedReader(output.openReader())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.info(line);
             }
         }
     }
 
-    protected static int doRunCommand(Logger logger, ProcessBuilder builder, String[] commands) {
-        String line = getCommandLine(commands);
-        try {
-            logger.info("$> " + line);
-            Process process = builder.start();
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                logger.warn("Failed to run command " + line + " in " + builder.directory() + " : exit " + exitCode);
-            }
-            return exitCode;
-        } catch (IOException e) {
-            logger.warn("Failed to run command " + line + " in " + builder.directory() + " : error " + e);
-        } catch (InterruptedException e) {
-            // ignore
+    protected static void applyEnvironmentVariables(ProcessBuilder builder, Map<String, String> environmentVariables) {
+        if (environmentVariables != null && !environmentVariables.isEmpty()) {
+            builder.environment().putAll(environmentVariables);
         }
-        return 1;
+    }
+
+    protected static int doRunCommand(Logger logger, ProcessBuilder builder, String[] commands) {
+        return execute(logger, builder, commands, null, null).getExitCode();
     }
 
     protected static int doRunCommandAndLogOutput(Logger logger, ProcessBuilder builder, String[] commands) {
+        return execute(logger, builder, commands, LineSink.info(logger), LineSink.error(logger), 0).getExitCode();
+    }
+
+    protected static int doRunCommandAndCaptureOutput(Logger logger, PrintWriter outputWriter, ProcessBuilder builder, String[] commands) {
+        return doRunCommandAndCaptureOutput(logger, outputWriter::println, builder, commands);
+    }
+
+    protected static int doRunCommandAndCaptureOutput(Logger logger, Consumer<String> outputConsumer, ProcessBuilder builder, String[] commands) {
+        return execute(logger, builder, commands, decoding(outputConsumer), LineSink.error(logger), 0).getExitCode();
+    }
+
+    /**
+     * Runs the process pumping its output and errors to the given consumers; if a consumer is null then the
+     * stream is expected to be redirected by the builder. The resource usage of the process is recorded
+     * in the trace and the metrics of the current step.
+     */
+    protected static ExecResult execute(Logger logger, ProcessBuilder builder, String[] commands, Consumer<String> outputConsumer, Consumer<String> errorConsumer) {
+        return execute(logger, builder, commands, decoding(outputConsumer), decoding(errorConsumer), 0);
+    }
+
+    /**
+     * Runs the process pumping its output and errors to the given consumers; if a consumer is null then the
+     * stream is expected to be redirected by the builder. If the process does not complete within the timeout, or
+     * the current thread is interrupted, then the process and all of its descendants are killed.
+     * The resource usage of the process is recorded in the trace and the metrics of the current step.
+     *
+     * @param timeoutMillis the maximum time to wait for the process or zero to wait forever
+     */
+    protected static ExecResult execute(Logger logger, ProcessBuilder builder, String[] commands, LineSink outputConsumer, LineSink errorConsumer, long timeoutMillis) {
         String line = getCommandLine(commands);
-        try {
-            logger.info("$> " + line);
-            Process process = builder.start();
-            processOutput(process.getInputStream(), logger, false, "output of command: " + line);
-            processOutput(process.getErrorStream(), logger, true, "errors of command: " + line);
+        try (Span span = Tracer.getInstance().startSpan(line, "process")) {
+            long start = System.nanoTime();
+            int exitCode = 1;
+            ProcessSampler sampler = null;
+            String killReason = null;
+            CountingInputStream outputStream = null;
+            CountingInputStream errorStream = null;
+            try {
+                logger.info("$> " + line);
+                Process process = builder.start();
+                sampler = new ProcessSampler(process);
+                Future<Long> output = null;
+                Future<Long> errors = null;
+                if (outputConsumer != null) {
+                    outputStream = new CountingInputStream(process.getInputStream());
+                    output = pump(outputStream, outputConsumer);
+                }
+                if (errorConsumer != null) {
+                    errorStream = new CountingInputStream(process.getErrorStream());
+                    errors = pump(errorStream, errorConsumer);
+                }
 
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                logger.warn("Failed to run command " + line + " in " + builder.directory() + " : exit " + exitCode);
+                try {
+                    if (timeoutMillis > 0) {
+                        if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                            killReason = "timed out after " + timeoutMillis + "ms";
+                            logger.warn("Killing command " + line + " as it " + killReason);
+                            ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+                        }
+                    }
+                    exitCode = process.waitFor();
+                } catch (InterruptedException e) {
+                    killReason = "interrupted";
+                    logger.warn("Killing command " + line + " as the build was interrupted");
+                    ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+                    Thread.currentThread().interrupt();
+                    return createResult(line, process.isAlive() ? 1 : process.exitValue(), start, sampler, outputStream, errorStream, killReason, span);
+                }
+                // orphaned grandchildren of a killed process may still hold the pipes open so don't wait forever
+                long pumpTimeout = killReason != null ? ProcessTree.DEFAULT_GRACE_MILLIS : 0;
+                if (output != null) {
+                    awaitPump(output, logger, "output of command: " + line, pumpTimeout);
+                }
+                if (errors != null) {
+                    awaitPump(errors, logger, "errors of command: " + line, pumpTimeout);
+                }
+                if (exitCode != 0) {
+                    logger.warn("Failed to run command " + line + " in " + builder.directory() + " : exit " + exitCode);
+                }
+            } catch (IOException e) {
+                exitCode = 1;
+                logger.warn("Failed to run command " + line + " in " + builder.directory() + " : error " + e);
+            } catch (InterruptedException e) {
+                // interrupted while waiting for the output after the process completed
+                Thread.currentThread().interrupt();
+            } finally {
+                if (sampler != null) {
+                    sampler.close();
+                }
             }
-            return exitCode;
-        } catch (IOException e) {
-            logger.warn("Failed to run command " + line + " in " + builder.directory() + " : error " + e);
-        } catch (InterruptedException e) {
-            // ignore
+            return createResult(line, exitCode, start, sampler, outputStream, errorStream, killReason, span);
         }
-        return 1;
     }
 
-    protected static int doRunCommandAndCaptureOutput(Logger logger, PrintWriter outputWriter, ProcessBuilder builder, String[] commands) {
-        String line = getCommandLine(commands);
-        try {
-            logger.info("$> " + line);
-            Process process = builder.start();
+    protected static ExecResult createResult(String line, int exitCode, long start, ProcessSampler sampler, CountingInputStream outputStream, CountingInputStream errorStream, String killReason, Span span) {
+        if (sampler != null) {
+            sampler.close();
+        }
+        ExecResult result = new ExecResult(line, exitCode, System.nanoTime() - start,
+                sampler != null ? sampler.getUserCpuNanos() : -1,
+                sampler != null ? sampler.getSystemCpuNanos() : -1,
+                sampler != null ? sampler.getPeakRssBytes() : -1,
+                outputStream != null ? outputStream.getCount() : -1,
+                errorStream != null ? errorStream.getCount() : -1,
+                killReason);
+        addSpanArgs(span, result);
+        StepMetrics.getInstance().recordProcess(result);
+        return result;
+    }
 
-            writeOutput(process.getInputStream(), outputWriter);
-            processOutput(process.getErrorStream(), logger, true, "errors of command: " + line);
+    protected static void addSpanArgs(Span span, ExecResult result) {
+        span.addArg("exitCode", result.getExitCode());
+        if (result.getUserCpuNanos() >= 0) {
+            span.addArg("userCpuMillis", TimeUnit.NANOSECONDS.toMillis(result.getUserCpuNanos()));
+            span.addArg("systemCpuMillis", TimeUnit.NANOSECONDS.toMillis(result.getSystemCpuNanos()));
+        }
+        if (result.getPeakRssBytes() >= 0) {
+            span.addArg("peakRssBytes", result.getPeakRssBytes());
+        }
+        if (result.getOutputBytes() >= 0) {
+            span.addArg("outputBytes", result.getOutputBytes());
+        }
+        if (result.getErrorBytes() >= 0) {
+            span.addArg("errorBytes", result.getErrorBytes());
+        }
+        if (result.isKilled()) {
+            span.addArg("killed", result.getKillReason());
+        }
+    }
 
+    /**
+     * Closes the process of a streamed output returning its exit code or -1 if it was killed
+     */
+    protected static int closeStreamedProcess(Logger logger, ProcessBuilder builder, String line, Process process, BufferedReader reader, Future<Long> errors, boolean ended) {
+        try {
+            if (!ended && process.isAlive()) {
+                // the consumer stopped before the end of the output; kill the whole tree as a pipeline leaves
+                // its commands running when only the shell is killed
+                ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+                reader.close();
+                return -1;
+            }
+            reader.close();
             int exitCode = process.waitFor();
+            awaitPump(errors, logger, "errors of command: " + line);
             if (exitCode != 0) {
                 logger.warn("Failed to run command " + line + " in " + builder.directory() + " : exit " + exitCode);
             }
             return exitCode;
         } catch (IOException e) {
-            logger.warn("Failed to run command " + line + " in " + builder.directory() + " : error " + e);
+            throw new FailedBuildException("Failed to run command " + line + " in " + builder.directory() + " : error " + e, e);
         } catch (InterruptedException e) {
-            // ignore
+            logger.warn("Killing command " + line + " as the build was interrupted");
+            ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+            Thread.currentThread().interrupt();
+            return -1;
         }
-        return 1;
     }
 
-    protected static String getCommandLine(String[] commands) {
+    public static String getCommandLine(String[] commands) {
         return Strings.stripPrefix(String.join(" ", commands), "bash -c ");
     }
 
-    protected static void processOutput(InputStream inputStream, Logger logger, boolean error, String description) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) break;
-                if (error) {
-                    logger.error(line);
-                } else {
-                    logger.info(line);
-                }
+    /**
+     * Pumps the lines of the given stream to the consumer on a background thread
+     */
+    public static Future<Long> pump(InputStream inputStream, Consumer<String> consumer) {
+        return pump(inputStream, decoding(consumer));
+    }
+
+    /**
+     * Pumps the lines of the given stream as bytes to the sink on a background thread
+     */
+    public static Future<Long> pump(InputStream inputStream, LineSink sink) {
+        return pumps.submit(new LinePumper(inputStream, sink));
+    }
+
+    /**
+     * Returns a sink which decodes each line of process output with the platform charset for the consumer
+     */
+    protected static LineSink decoding(Consumer<String> consumer) {
+        return consumer != null ? LineSink.decoding(consumer, Charset.defaultCharset()) : null;
+    }
+
+    protected static void awaitPump(Future<Long> future, Logger logger, String description) throws IOException, InterruptedException {
+        awaitPump(future, logger, description, 0);
+    }
+
+    /**
+     * Waits for the pump to complete
+     *
+     * @param timeoutMillis the maximum time to wait after which the pump is abandoned or zero to wait forever
+     */
+    protected static void awaitPump(Future<Long> future, Logger logger, String description, long timeoutMillis) throws IOException, InterruptedException {
+        try {
+            if (timeoutMillis > 0) {
+                future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                future.get();
             }
+        } catch (TimeoutException e) {
+            logger.warn("Gave up waiting for the " + description + " after " + timeoutMillis + "ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            logger.error("Failed to process " + description + ": " + cause, cause);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to process " + description + ": " + cause, cause);
+        }
+    }
 
+    protected static void processOutput(InputStream inputStream, Logger logger, boolean error, String description) throws IOException {
+        try {
+            new LinePumper(inputStream, error ? LineSink.error(logger) : LineSink.info(logger)).call();
         } catch (Exception e) {
             logger.error("Failed to process " + description + ": " + e, e);
             throw e;
@@ -169,13 +571,7 @@ public class ProcessHelper {
     }
 
     protected static void writeOutput(InputStream inputStream, PrintWriter writer) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) break;
-                writer.println(line);
-            }
-        }
+        new LinePumper(inputStream, decoding(writer::println)).call();
     }
 
 
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the CPU time and peak memory of a running process from <code>/proc/&lt;pid&gt;</code> on Linux.
+ * <br>
+ * The figures can only be read while the process is running so they are sampled periodically; CPU used by the
+ * process after the last sample is not included. CPU time includes child processes which have completed.
+ * On other platforms nothing is sampled and the figures are -1.
+ */
+public class ProcessSampler implements Closeable {
+    public static final long SAMPLE_PERIOD_MILLIS = Long.getLong("step.function.process.sample.millis", 100);
+
+    /**
+     * The kernel clock ticks per second used in <code>/proc/&lt;pid&gt;/stat</code> which is 100 on almost all Linux systems
+     */
+    public static final long CLOCK_TICKS = Long.getLong("step.function.clock.ticks", 100);
+
+    private static final File PROC = new File("/proc");
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "process-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long pid;
+    private final File statFile;
+    private final File statusFile;
+    private final ScheduledFuture<?> future;
+    private volatile long userTicks = -1;
+    private volatile long systemTicks = -1;
+    private volatile long peakRssKb = -1;
+
+    public ProcessSampler(Process process) {
+        this.pid = getPid(process);
+        if (pid > 0 && PROC.isDirectory()) {
+            File dir = new File(PROC, Long.toString(pid));
+            this.statFile = new File(dir, "stat");
+            this.statusFile = new File(dir, "status");
+            sample();
+            this.future = scheduler.scheduleAtFixedRate(this::sample, SAMPLE_PERIOD_MILLIS, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            this.statFile = null;
+            this.statusFile = null;
+            this.future = null;
+        }
+    }
+
+    /**
+     * Returns the process id of the given process or -1 if it cannot be found
+     */
+    public static long getPid(Process process) {
+        try {
+            // Java 9 and later
+            Method method = Process.class.getMethod("pid");
+            return ((Number) method.invoke(process)).longValue();
+        } catch (Exception e) {
+            // fall through
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getLong(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessSampler{" + pid + "}";
+    }
+
+    /**
+     * Stops sampling the process
+     */
+    @Override
+    public void close() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Reads the current figures of the process if it is still running
+     */
+    public void sample() {
+        if (statFile == null) {
+            return;
+        }
+        try {
+            String stat = new String(Files.readAllBytes(statFile.toPath()), StandardCharsets.US_ASCII);
+            // the command name may contain spaces so parse the fields after it
+            int idx = stat.lastIndexOf(')');
+            String[] fields = stat.substring(idx + 2).split(" ");
+            // fields 14 to 17 of the stat file: utime stime cutime cstime
+            long user = Long.parseLong(fields[11]) + Long.parseLong(fields[13]);
+            long system = Long.parseLong(fields[12]) + Long.parseLong(fields[14]);
+            if (user > userTicks) {
+                userTicks = user;
+            }
+            if (system > systemTicks) {
+                systemTicks = system;
+            }
+
+            List<String> lines = Files.readAllLines(statusFile.toPath(), StandardCharsets.US_ASCII);
+            for (String line : lines) {
+                if (line.startsWith("VmHWM:")) {
+                    long kb = Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+                    if (kb > peakRssKb) {
+                        peakRssKb = kb;
+                    }
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the process has completed
+        }
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    public long getUserCpuNanos() {
+        return ticksToNanos(userTicks);
+    }
+
+    public long getSystemCpuNanos() {
+        return ticksToNanos(systemTicks);
+    }
+
+    public long getPeakRssBytes() {
+        return peakRssKb < 0 ? -1 : peakRssKb * 1024;
+    }
+
+    protected static long ticksToNanos(long ticks) {
+        return ticks < 0 ? -1 : ticks * TimeUnit.SECONDS.toNanos(1) / CLOCK_TICKS;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper methods for terminating a process and all of its descendants.
+ * <br>
+ * Killing just the process started by {@link ProcessBuilder} leaves the commands it started running as orphans;
+ * e.g. killing <code>bash -c "make test"</code> leaves <code>make</code> and its children behind. Descendants are
+ * found from the parent pid in <code>/proc/&lt;pid&gt;/stat</code> on Linux; on other platforms only the process
+ * itself is killed.
+ */
+public class ProcessTree {
+    public static final long DEFAULT_GRACE_MILLIS = Long.getLong("step.function.kill.grace.millis", 5000);
+
+    private static final File PROC = new File("/proc");
+
+    /**
+     * Kills the process and its descendants; first asking them to terminate then forcibly killing any which are
+     * still running after the grace period
+     *
+     * @return true if the process terminated
+     */
+    public static boolean kill(Process process, long graceMillis, Logger logger) {
+        long pid = ProcessSampler.getPid(process);
+        // find the descendants before killing the process as they get reparented when it dies
+        List<Long> descendants = pid > 0 ? getDescendants(pid) : new ArrayList<>();
+        signal(descendants, "TERM", logger);
+        process.destroy();
+        boolean terminated = waitFor(process, graceMillis);
+        List<Long> remaining = new ArrayList<>();
+        for (Long descendant : descendants) {
+            if (isAlive(descendant)) {
+                remaining.add(descendant);
+            }
+        }
+        if (!terminated || !remaining.isEmpty()) {
+            logger.warn("Forcibly killing process " + pid + " and descendants " + remaining + " which did not terminate within " + graceMillis + "ms");
+            signal(remaining, "KILL", logger);
+            process.destroyForcibly();
+            terminated = waitFor(process, graceMillis);
+        }
+        return terminated;
+    }
+
+    /**
+     * Returns the ids of all the descendants of the given process with parents before their children
+     */
+    public static List<Long> getDescendants(long pid) {
+        List<Long> answer = new ArrayList<>();
+        Map<Long, List<Long>> children = getChildrenByParent();
+        List<Long> parents = new ArrayList<>();
+        parents.add(pid);
+        for (int i = 0; i < parents.size(); i++) {
+            List<Long> list = children.get(parents.get(i));
+            if (list != null) {
+                for (Long child : list) {
+                    if (!answer.contains(child)) {
+                        answer.add(child);
+                        parents.add(child);
+                    }
+                }
+            }
+        }
+        return answer;
+    }
+
+    public static boolean isAlive(long pid) {
+        File stat = new File(PROC, pid + "/stat");
+        try {
+            String text = new String(Files.readAllBytes(stat.toPath()), StandardCharsets.US_ASCII);
+            // zombies have completed and are waiting to be reaped
+            int idx = text.lastIndexOf(')');
+            return idx > 0 && idx + 2 < text.length() && text.charAt(idx + 2) != 'Z';
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    protected static Map<Long, List<Long>> getChildrenByParent() {
+        Map<Long, List<Long>> answer = new HashMap<>();
+        File[] files = PROC.listFiles();
+        if (files == null) {
+            return answer;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                continue;
+            }
+            try {
+                String stat = new String(Files.readAllBytes(new File(file, "stat").toPath()), StandardCharsets.US_ASCII);
+                int idx = stat.lastIndexOf(')');
+                // the fields after the command name are: state ppid ...
+                String[] fields = stat.substring(idx + 2).split(" ", 3);
+                long ppid = Long.parseLong(fields[1]);
+                answer.computeIfAbsent(ppid, key -> new ArrayList<>()).add(Long.parseLong(name));
+            } catch (IOException | RuntimeException e) {
+                // the process has completed
+            }
+        }
+        return answer;
+    }
+
+    protected static void signal(List<Long> pids, String signal, Logger logger) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-" + signal);
+        for (Long pid : pids) {
+            command.add(pid.toString());
+        }
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getInputStream().close();
+            process.waitFor(10, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            logger.warn("Failed to send SIG" + signal + " to processes " + pids + ": " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected static boolean waitFor(Process process, long millis) {
+        try {
+            return process.waitFor(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !process.isAlive();
+        }
+    }
+}
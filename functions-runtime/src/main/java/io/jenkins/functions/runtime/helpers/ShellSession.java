@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * A long lived <code>bash</code> process which runs commands written to its standard input so that running lots of
+ * small commands avoids the cost of starting a new process and shell for each command.
+ * <br>
+ * Each command runs in a subshell in the given directory with the given environment variables exported so that
+ * directory and environment changes made by a command do not leak into the next command; just like running
+ * each command in its own <code>bash -c</code> process. The output and exit code of each command are framed
+ * by a unique sentinel written to both the output and error streams.
+ */
+public class ShellSession implements Closeable {
+    private final String sentinel = "__STEP_FUNCTION_SENTINEL_" + UUID.randomUUID().toString().replace("-", "") + "__";
+    private final Process process;
+    private final Writer input;
+    private final Future<Long> outputPump;
+    private final Future<Long> errorPump;
+    private volatile Invocation current;
+    private volatile boolean closed;
+
+    public ShellSession(File dir) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder("bash");
+        builder.directory(dir);
+        process = builder.start();
+        input = new OutputStreamWriter(process.getOutputStream(), Charset.defaultCharset());
+        outputPump = ProcessHelper.pump(process.getInputStream(), this::onOutput);
+        errorPump = ProcessHelper.pump(process.getErrorStream(), this::onError);
+    }
+
+    @Override
+    public String toString() {
+        return "ShellSession{" + process + "}";
+    }
+
+    /**
+     * Runs the command logging its output and returning its exit code
+     */
+    public int run(File dir, Map<String, String> environmentVariables, String command, Logger logger) throws IOException {
+        logger.info("$> " + command);
+        int exitCode = run(dir, environmentVariables, command, logger::info, logger::error);
+        if (exitCode != 0) {
+            logger.warn("Failed to run command " + command + " in " + dir + " : exit " + exitCode);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Runs the command returning its output; logging any errors
+     *
+     * @throws IOException if the command fails
+     */
+    public String runCaptureOutput(File dir, Map<String, String> environmentVariables, String command, Logger logger) throws IOException {
+        logger.info("$> " + command);
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter outputPrintWriter = new PrintWriter(outputWriter);
+        int exitCode = run(dir, environmentVariables, command, outputPrintWriter::println, logger::error);
+        outputPrintWriter.close();
+        String output = outputWriter.toString();
+        if (exitCode != 0) {
+            logger.warn("Failed to run commands " + command + " result: " + exitCode);
+            ProcessHelper.logOutput(logger, output, false);
+            throw new IOException("Failed to run commands " + command + " result: " + exitCode);
+        }
+        return output;
+    }
+
+    /**
+     * Runs the commands one after the other in a new shell process capturing the output of each command.
+     * The commands share the shell so a <code>cd</code> or <code>export</code> in one command affects the
+     * following commands of the batch.
+     * <br>
+     * If a command exits the shell; e.g. via <code>exit</code> or <code>set -e</code> then its exit code is the
+     * result of the command and the following commands run in a new shell in the directory and with the exported
+     * variables of the last command which completed.
+     *
+     * @param failFast if true then no more commands are run after a command fails
+     * @return the results of the commands which were run
+     */
+    public static List<CommandResult> runBatch(File dir, Map<String, String> environmentVariables, List<String> commands, boolean failFast, Logger logger) throws IOException {
+        return runBatch(dir, environmentVariables, commands, failFast, 0, TimeUnit.MILLISECONDS, logger);
+    }
+
+    /**
+     * Runs the commands one after the other in a new shell process capturing the output of each command. If the batch
+     * does not complete within the timeout then the shell is killed along with all of its descendants.
+     *
+     * @param timeout the maximum time the whole batch may run or zero to let it run forever
+     * @throws IOException if a command could not be run or the batch timed out
+     * @see #runBatch(File, Map, List, boolean, Logger)
+     */
+    public static List<CommandResult> runBatch(File dir, Map<String, String> environmentVariables, List<String> commands, boolean failFast, long timeout, TimeUnit unit, Logger logger) throws IOException {
+        long timeoutMillis = unit.toMillis(timeout);
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        List<CommandResult> answer = new ArrayList<>(commands.size());
+        File stateFile = createStateFile();
+        ShellSession session = null;
+        try {
+            String saveState = createSaveStateScript(stateFile);
+            String setupScript = createSetupScript(dir, environmentVariables) + saveState;
+            for (String command : commands) {
+                if (session == null) {
+                    session = new ShellSession(dir);
+                    int exitCode = session.execute(setupScript, logger::info, logger::error, deadline, logger);
+                    if (exitCode != 0) {
+                        throw new IOException("Failed to set up shell in " + dir + " : exit " + exitCode);
+                    }
+                    // any new shell restores the state of the last completed command
+                    setupScript = ". " + quote(stateFile.getAbsolutePath()) + " 2>/dev/null; true";
+                }
+                logger.info("$> " + command);
+                StringWriter outputWriter = new StringWriter();
+                PrintWriter outputPrintWriter = new PrintWriter(outputWriter);
+                int exitCode;
+                try {
+                    exitCode = session.execute("{ eval " + quote(command) + "; } </dev/null; __step_exit=$?; " + saveState + "; (exit $__step_exit)",
+                            outputPrintWriter::println, logger::error, deadline, logger);
+                } catch (IOException e) {
+                    Integer shellExitCode = session.waitForExit();
+                    if (shellExitCode == null) {
+                        throw e;
+                    }
+                    exitCode = shellExitCode;
+                    session.close();
+                    session = null;
+                }
+                outputPrintWriter.close();
+                answer.add(new CommandResult(command, exitCode, outputWriter.toString()));
+                if (exitCode != 0) {
+                    logger.warn("Failed to run command " + command + " in " + dir + " : exit " + exitCode);
+                    if (failFast) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+            stateFile.delete();
+        }
+        return answer;
+    }
+
+    /**
+     * Runs the command passing each line of its output and errors to the given consumers and returning its exit code
+     */
+    public int run(File dir, Map<String, String> environmentVariables, String command, Consumer<String> output, Consumer<String> errors) throws IOException {
+        return execute("( " + createSetupScript(dir, environmentVariables) + "eval " + quote(command) + " ) </dev/null", output, errors);
+    }
+
+    /**
+     * Evaluates the script in the shell itself followed by the sentinels
+     */
+    protected int execute(String script, Consumer<String> output, Consumer<String> errors) throws IOException {
+        return execute(script, output, errors, 0, null);
+    }
+
+    /**
+     * Evaluates the script in the shell itself followed by the sentinels killing the shell and all of its descendants
+     * if the script has not completed by the deadline
+     *
+     * @param deadline the time in milliseconds since the epoch by which the script must complete or zero for no deadline
+     */
+    protected synchronized int execute(String script, Consumer<String> output, Consumer<String> errors, long deadline, Logger logger) throws IOException {
+        if (!isAlive()) {
+            throw new IOException("Shell session has terminated");
+        }
+        Invocation invocation = new Invocation(output, errors);
+        current = invocation;
+        try {
+            input.write(script + "\n" + createSentinelScript());
+            input.flush();
+            while (!invocation.done.await(100, TimeUnit.MILLISECONDS)) {
+                if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                    closed = true;
+                    if (logger != null) {
+                        logger.warn("Killing shell session " + this + " as it timed out running command " + script);
+                        ProcessTree.kill(process, ProcessTree.DEFAULT_GRACE_MILLIS, logger);
+                    } else {
+                        process.destroyForcibly();
+                    }
+                    throw new IOException("Timed out running command " + script);
+                }
+                if (outputPump.isDone() || errorPump.isDone()) {
+                    // the shell has exited so the sentinels will never arrive; wait for the rest of its output
+                    awaitPump(outputPump);
+                    awaitPump(errorPump);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted running command " + script, e);
+        } finally {
+            current = null;
+        }
+        if (invocation.exitCode == null) {
+            throw new IOException("Shell session terminated while running command " + script);
+        }
+        return invocation.exitCode;
+    }
+
+    public boolean isAlive() {
+        return !closed && process.isAlive();
+    }
+
+    /**
+     * Returns the exit code of the shell if it has exited by itself; e.g. after running <code>exit</code>, or null
+     * if it is still running or was closed
+     */
+    protected Integer waitForExit() {
+        if (closed) {
+            return null;
+        }
+        try {
+            if (process.waitFor(1, TimeUnit.SECONDS)) {
+                return process.exitValue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            input.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        process.destroy();
+    }
+
+    protected static String createSetupScript(File dir, Map<String, String> environmentVariables) {
+        StringBuilder builder = new StringBuilder();
+        if (dir != null) {
+            builder.append("cd ").append(quote(dir.getAbsolutePath())).append(" && ");
+        }
+        if (environmentVariables != null) {
+            for (Map.Entry<String, String> entry : environmentVariables.entrySet()) {
+                builder.append("export ").append(quote(entry.getKey() + "=" + entry.getValue())).append(" && ");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates the file used to pass the state between shells of a batch which only the current user can read
+     * as it contains all the exported variables; which may include credentials
+     */
+    protected static File createStateFile() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile("shell-state-", ".sh", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+        }
+        File answer = File.createTempFile("shell-state-", ".sh");
+        answer.setReadable(false, false);
+        answer.setReadable(true, true);
+        answer.setWritable(false, false);
+        answer.setWritable(true, true);
+        return answer;
+    }
+
+    /**
+     * Returns the script which saves the current directory and exported variables as a script which restores them
+     */
+    protected static String createSaveStateScript(File stateFile) {
+        return "{ printf 'cd %q\\n' \"$PWD\"; export -p; } > " + quote(stateFile.getAbsolutePath());
+    }
+
+    protected static void awaitPump(Future<Long> pump) throws InterruptedException {
+        try {
+            // a background process of the shell may still have the stream open
+            pump.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // ignore
+        }
+    }
+
+    protected String createSentinelScript() {
+        // the output may not end with a newline so the sentinel may be at the end of the last line
+        return "printf '%s %d\\n' " + sentinel + " $?\n" +
+                "printf '%s\\n' " + sentinel + " >&2\n";
+    }
+
+    protected void onOutput(String line) {
+        Invocation invocation = current;
+        int idx = line.indexOf(sentinel);
+        if (idx < 0) {
+            if (invocation != null) {
+                invocation.output.accept(line);
+            }
+            return;
+        }
+        if (invocation != null) {
+            if (idx > 0) {
+                invocation.output.accept(line.substring(0, idx));
+            }
+            try {
+                invocation.exitCode = Integer.parseInt(line.substring(idx + sentinel.length()).trim());
+            } catch (NumberFormatException e) {
+                invocation.exitCode = 1;
+            }
+            invocation.done.countDown();
+        }
+    }
+
+    protected void onError(String line) {
+        Invocation invocation = current;
+        int idx = line.indexOf(sentinel);
+        if (idx < 0) {
+            if (invocation != null) {
+                invocation.errors.accept(line);
+            }
+            return;
+        }
+        if (invocation != null) {
+            if (idx > 0) {
+                invocation.errors.accept(line.substring(0, idx));
+            }
+            invocation.done.countDown();
+        }
+    }
+
+    protected static String quote(String text) {
+        return "'" + text.replace("'", "'\\''") + "'";
+    }
+
+    protected static class Invocation {
+        private final Consumer<String> output;
+        private final Consumer<String> errors;
+        private final CountDownLatch done = new CountDownLatch(2);
+        private volatile Integer exitCode;
+
+        public Invocation(Consumer<String> output, Consumer<String> errors) {
+            this.output = output;
+            this.errors = errors;
+        }
+    }
+}
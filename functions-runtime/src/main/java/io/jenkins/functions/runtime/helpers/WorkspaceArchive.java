@@ -0,0 +1,563 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archives the files of a workspace which match a glob into a compressed stream and extracts them again; so that
+ * parts of a workspace can be moved between stages without forking <code>tar</code> and <code>gzip</code>.
+ * <br>
+ * Each file is split into blocks which are compressed independently so that the blocks of large files are
+ * compressed and extracted in parallel. Only a bounded number of blocks are in flight at once so neither
+ * archiving nor extracting holds whole files in memory. The archive is a sequence of records:
+ * <pre>
+ * archive = MAGIC VERSION record* 'E'
+ * record  = 'F' path modified mode block* -1
+ *         | 'L' path target
+ * block   = rawLength compressedLength compressedBytes
+ * </pre>
+ * Symbolic links are archived as links and extracted after all the files so that a link cannot redirect the
+ * extraction of a file outside the target directory.
+ */
+public class WorkspaceArchive {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x53574131;
+    private static final int VERSION = 1;
+    private static final byte TYPE_FILE = 'F';
+    private static final byte TYPE_LINK = 'L';
+    private static final byte TYPE_END = 'E';
+    private static final int END_OF_BLOCKS = -1;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Set<String> excludes = FileFinder.DEFAULT_EXCLUDES;
+
+    /**
+     * Archives the files below the base directory which match the glob into the archive file
+     *
+     * @return the number of files and links archived
+     */
+    public long write(File baseDir, String glob, File archiveFile) throws IOException {
+        File parentFile = archiveFile.getAbsoluteFile().getParentFile();
+        if (parentFile != null) {
+            parentFile.mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(archiveFile)) {
+            return write(baseDir, glob, out, archiveFile);
+        }
+    }
+
+    /**
+     * Archives the files below the base directory which match the glob to the stream
+     *
+     * @return the number of files and links archived
+     */
+    public long write(File baseDir, String glob, OutputStream output) throws IOException {
+        return write(baseDir, glob, output, null);
+    }
+
+    /**
+     * Extracts the archive file into the target directory replacing any existing files
+     *
+     * @return the number of files and links extracted
+     */
+    public long extract(File archiveFile, File targetDir) throws IOException {
+        try (InputStream in = new FileInputStream(archiveFile)) {
+            return extract(in, targetDir);
+        }
+    }
+
+    /**
+     * Extracts the archive from the stream into the target directory replacing any existing files
+     *
+     * @return the number of files and links extracted
+     */
+    public long extract(InputStream input, File targetDir) throws IOException {
+        Path target = targetDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(target);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a workspace archive or an unsupported version");
+        }
+        int maxInFlight = getMaxInFlight();
+        Semaphore permits = new Semaphore(maxInFlight);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Map<Path, String> links = new LinkedHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        long count = 0;
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == TYPE_END) {
+                    break;
+                }
+                Path path = resolve(target, in.readUTF());
+                if (type == TYPE_LINK) {
+                    links.put(path, in.readUTF());
+                } else if (type == TYPE_FILE) {
+                    long modified = in.readLong();
+                    int mode = in.readInt();
+                    extractFile(in, target, path, modified, mode, pool, permits, failure);
+                } else {
+                    throw new IOException("Corrupt workspace archive: unknown record type " + type);
+                }
+                count++;
+                checkFailure(failure);
+            }
+            // wait for all the blocks to be written
+            permits.acquire(maxInFlight);
+            permits.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted extracting workspace archive");
+        } catch (EOFException e) {
+            throw new IOException("Truncated workspace archive: " + e, e);
+        } finally {
+            pool.shutdown();
+        }
+        checkFailure(failure);
+        for (Map.Entry<Path, String> entry : links.entrySet()) {
+            Path link = entry.getKey();
+            createParentDirectories(target, link);
+            Files.deleteIfExists(link);
+            Files.createSymbolicLink(link, Paths.get(entry.getValue()));
+        }
+        return count;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the number of bytes of each independently compressed block; larger blocks compress better
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the {@link Deflater} compression level from 0 to 9
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Set<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Sets the names of files and directories which are never archived; defaults to {@link FileFinder#DEFAULT_EXCLUDES}
+     */
+    public void setExcludes(Set<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    protected long write(File baseDir, String glob, OutputStream output, File archiveFile) throws IOException {
+        FileFinder finder = new FileFinder(baseDir, glob);
+        finder.setExcludes(excludes);
+        List<File> files = finder.findFiles();
+        files.sort(null);
+        Path base = baseDir.toPath();
+        File skip = archiveFile != null ? archiveFile.getAbsoluteFile() : null;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        int maxInFlight = getMaxInFlight();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        long count = 0;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (File file : files) {
+                if (file.getAbsoluteFile().equals(skip)) {
+                    continue;
+                }
+                Path path = file.toPath();
+                String name = toArchivePath(base.relativize(path));
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    enqueue(out, pending, maxInFlight, createLinkRecord(name, Files.readSymbolicLink(path)));
+                } else {
+                    enqueue(out, pending, maxInFlight, createFileRecord(name, attributes, getMode(path)));
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        while (true) {
+                            byte[] block = new byte[blockSize];
+                            int length = readBlock(channel, block);
+                            if (length <= 0) {
+                                break;
+                            }
+                            enqueue(out, pending, maxInFlight, pool.submit(() -> compress(block, length)));
+                        }
+                    }
+                    enqueue(out, pending, maxInFlight, CompletableFuture.completedFuture(toBytes(END_OF_BLOCKS)));
+                }
+                count++;
+            }
+            while (!pending.isEmpty()) {
+                writeNext(out, pending);
+            }
+            out.writeByte(TYPE_END);
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    protected void extractFile(DataInputStream in, Path targetDir, Path path, long modified, int mode, ForkJoinPool pool, Semaphore permits, AtomicReference<IOException> failure) throws IOException, InterruptedException {
+        createParentDirectories(targetDir, path);
+        if (Files.isSymbolicLink(path)) {
+            Files.delete(path);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+        ExtractedFile file = new ExtractedFile(path, channel, modified, mode, failure);
+        long position = 0;
+        try {
+            while (true) {
+                int rawLength = in.readInt();
+                if (rawLength == END_OF_BLOCKS) {
+                    break;
+                }
+                int compressedLength = in.readInt();
+                if (rawLength < 0 || compressedLength < 0) {
+                    throw new IOException("Corrupt workspace archive: invalid block of " + path);
+                }
+                byte[] compressed = new byte[compressedLength];
+                in.readFully(compressed);
+                long blockPosition = position;
+                permits.acquire();
+                file.blockSubmitted();
+                pool.execute(() -> {
+                    try {
+                        channel.write(ByteBuffer.wrap(decompress(compressed, rawLength)), blockPosition);
+                    } catch (IOException | DataFormatException e) {
+                        failure.compareAndSet(null, new IOException("Failed to extract " + path + ": " + e, e));
+                    } finally {
+                        file.blockDone();
+                        permits.release();
+                    }
+                });
+                position += rawLength;
+            }
+        } finally {
+            file.allSubmitted();
+        }
+    }
+
+    /**
+     * Compresses the block returning the bytes of the block record
+     */
+    protected byte[] compress(byte[] block, int length) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 2 + 64);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(length);
+            // the compressed length is filled in once it is known
+            out.writeInt(0);
+            byte[] chunk = new byte[Math.min(length + 64, 64 * 1024)];
+            while (!deflater.finished()) {
+                int size = deflater.deflate(chunk);
+                buffer.write(chunk, 0, size);
+            }
+            byte[] answer = buffer.toByteArray();
+            System.arraycopy(toBytes(answer.length - 8), 0, answer, 4, 4);
+            return answer;
+        } catch (IOException e) {
+            // cannot happen writing to memory
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    protected static byte[] decompress(byte[] compressed, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] answer = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int size = inflater.inflate(answer, offset, rawLength - offset);
+                if (size == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += size;
+            }
+            if (offset != rawLength) {
+                throw new DataFormatException("Expected " + rawLength + " bytes but was " + offset);
+            }
+            return answer;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    protected int getMaxInFlight() {
+        return Math.max(parallelism, 1) * 2;
+    }
+
+    protected static void enqueue(DataOutputStream out, Deque<Future<byte[]>> pending, int maxInFlight, byte[] bytes) throws IOException {
+        enqueue(out, pending, maxInFlight, CompletableFuture.completedFuture(bytes));
+    }
+
+    /**
+     * Queues the bytes to be written in order; writing the oldest bytes if too many are in flight
+     */
+    protected static void enqueue(DataOutputStream out, Deque<Future<byte[]>> pending, int maxInFlight, Future<byte[]> future) throws IOException {
+        pending.add(future);
+        while (pending.size() > maxInFlight) {
+            writeNext(out, pending);
+        }
+    }
+
+    protected static void writeNext(DataOutputStream out, Deque<Future<byte[]>> pending) throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing workspace archive");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress: " + e.getCause(), e.getCause());
+        }
+    }
+
+    protected static int readBlock(FileChannel channel, byte[] block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    protected static byte[] createFileRecord(String name, BasicFileAttributes attributes, int mode) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(TYPE_FILE);
+        out.writeUTF(name);
+        out.writeLong(attributes.lastModifiedTime().toMillis());
+        out.writeInt(mode);
+        return buffer.toByteArray();
+    }
+
+    protected static byte[] createLinkRecord(String name, Path target) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(TYPE_LINK);
+        out.writeUTF(name);
+        out.writeUTF(target.toString());
+        return buffer.toByteArray();
+    }
+
+    protected static byte[] toBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    protected static String toArchivePath(Path path) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : path) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(name.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Resolves the path of an archive entry rejecting any path which would be outside the target directory
+     */
+    protected static Path resolve(Path targetDir, String name) throws IOException {
+        Path path = targetDir.resolve(name).normalize();
+        if (name.startsWith("/") || !path.startsWith(targetDir) || path.equals(targetDir)) {
+            throw new IOException("Workspace archive entry " + name + " is outside of " + targetDir);
+        }
+        return path;
+    }
+
+    /**
+     * Creates the parent directories of a path below the target directory replacing any symbolic link left in the
+     * target directory by an earlier extraction; otherwise the file would be written wherever the link points
+     */
+    protected static void createParentDirectories(Path targetDir, Path path) throws IOException {
+        Path dir = targetDir;
+        for (Path name : targetDir.relativize(path.getParent())) {
+            dir = dir.resolve(name);
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                attributes = null;
+            }
+            if (attributes != null && attributes.isSymbolicLink()) {
+                Files.deleteIfExists(dir);
+                attributes = null;
+            }
+            if (attributes == null) {
+                try {
+                    Files.createDirectory(dir);
+                    continue;
+                } catch (FileAlreadyExistsException e) {
+                    // created concurrently
+                    attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+            }
+            if (!attributes.isDirectory()) {
+                throw new IOException("Cannot create " + path + " as " + dir + " is not a directory");
+            }
+        }
+    }
+
+    protected static int getMode(Path path) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            return -1;
+        }
+        int mode = 0;
+        for (PosixFilePermission permission : view.readAttributes().permissions()) {
+            mode |= 1 << (8 - permission.ordinal());
+        }
+        return mode;
+    }
+
+    protected static void setMode(Path path, int mode) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (mode >= 0 && view != null) {
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            for (PosixFilePermission permission : PosixFilePermission.values()) {
+                if ((mode & (1 << (8 - permission.ordinal()))) != 0) {
+                    permissions.add(permission);
+                }
+            }
+            view.setPermissions(permissions);
+        }
+    }
+
+    protected static void checkFailure(AtomicReference<IOException> failure) throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * A file whose blocks are being written in parallel; which is closed once its last block has been written
+     */
+    protected static class ExtractedFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final long modified;
+        private final int mode;
+        private final AtomicReference<IOException> failure;
+        // one extra for the reader until all the blocks have been submitted
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        public ExtractedFile(Path path, FileChannel channel, long modified, int mode, AtomicReference<IOException> failure) {
+            this.path = path;
+            this.channel = channel;
+            this.modified = modified;
+            this.mode = mode;
+            this.failure = failure;
+        }
+
+        public void blockSubmitted() {
+            pending.incrementAndGet();
+        }
+
+        public void blockDone() {
+            if (pending.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        public void allSubmitted() {
+            blockDone();
+        }
+
+        protected void complete() {
+            try {
+                channel.close();
+                setMode(path, mode);
+                Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+            } catch (IOException e) {
+                failure.compareAndSet(null, new IOException("Failed to extract " + path + ": " + e, e));
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An index of the names of the files and directories in a workspace so that repeated {@link FileFinder} queries
+ * do not have to list every directory again.
+ * <br>
+ * Adding, removing or renaming a file changes the last modified time of its directory; so the index is kept fresh
+ * by checking the last modified time of each directory and only listing the directories which have changed.
+ * Directories modified just before they were listed are listed again as the timestamp may not capture later changes.
+ * A query only checks the directories which could contain its matches.
+ * The index is saved to a compact compressed file in the workspace so that it can be reused by later builds; the
+ * file is one of the {@link FileFinder#DEFAULT_EXCLUDES}. Only the most recently used indexes are kept in memory.
+ */
+public class WorkspaceIndex {
+    public static final String INDEX_FILE_NAME = ".step-index";
+    public static final int MAX_INSTANCES = Integer.getInteger("step.function.workspace.index.instances", 16);
+
+    private static final int MAGIC = 0x53494458;
+    private static final int VERSION = 1;
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final Map<File, WorkspaceIndex> instances = Collections.synchronizedMap(new LinkedHashMap<File, WorkspaceIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, WorkspaceIndex> eldest) {
+            // an evicted index is loaded again from its file
+            return size() > MAX_INSTANCES;
+        }
+    });
+
+    private final File baseDir;
+    private final File indexFile;
+    private final Set<String> excludes;
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private boolean dirty;
+
+    public WorkspaceIndex(File baseDir, File indexFile, Set<String> excludes) {
+        this.baseDir = baseDir;
+        this.indexFile = indexFile;
+        this.excludes = excludes;
+    }
+
+    /**
+     * Returns the shared index of the given directory loading it from its index file if it exists; only the
+     * {@link #MAX_INSTANCES} most recently used indexes are kept
+     */
+    public static WorkspaceIndex getInstance(File dir) {
+        File key = dir.getAbsoluteFile();
+        return instances.computeIfAbsent(key, file -> {
+            WorkspaceIndex index = new WorkspaceIndex(file, new File(file, INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES);
+            index.load();
+            return index;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "WorkspaceIndex{" + baseDir + " directories: " + size() + "}";
+    }
+
+    /**
+     * Lists any directories which have changed since they were indexed and saves the index if it changed
+     */
+    public synchronized void refresh() throws IOException {
+        refresh("", null);
+    }
+
+    /**
+     * Lists any directories in the tree of the given directory which have changed since they were indexed, only
+     * descending into the sub directories accepted by the filter, and saves the index if it changed; so that a query
+     * only checks the directories which could contain its matches
+     *
+     * @param relativeDir the directory relative to the base directory using '/' as the separator
+     * @param directoryFilter accepts the relative paths of the sub directories to check or null to check them all
+     */
+    public synchronized void refresh(String relativeDir, Predicate<String> directoryFilter) throws IOException {
+        Path dir = relativeDir.isEmpty() ? baseDir.toPath() : baseDir.toPath().resolve(relativeDir);
+        refresh(relativeDir, dir, directoryFilter);
+        if (dirty && indexFile != null) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the entry of the directory at the given path relative to the base directory using '/' as the separator
+     * or null if it is not indexed
+     */
+    public synchronized Entry getEntry(String relativeDir) {
+        return entries.get(relativeDir);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    public Set<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Loads the index file if it exists and was written with the same excludes
+     */
+    public synchronized void load() {
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(indexFile))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            Set<String> savedExcludes = new HashSet<>(readNames(in));
+            if (!savedExcludes.equals(excludes)) {
+                return;
+            }
+            TreeMap<String, Entry> loaded = new TreeMap<>();
+            for (int i = 0, size = in.readInt(); i < size; i++) {
+                String path = in.readUTF();
+                long modified = in.readLong();
+                boolean racy = in.readBoolean();
+                loaded.put(path, new Entry(modified, racy, readNames(in), readNames(in)));
+            }
+            entries.clear();
+            entries.putAll(loaded);
+        } catch (IOException e) {
+            // a corrupt or partially written index is rebuilt
+            entries.clear();
+        }
+    }
+
+    /**
+     * Saves the index to a temporary file which then replaces the index file so a partially written file is never read
+     */
+    public synchronized void save() throws IOException {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmpFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeNames(out, new ArrayList<>(excludes));
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.modified);
+                out.writeBoolean(entry.racy);
+                writeNames(out, entry.files);
+                writeNames(out, entry.directories);
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    protected void refresh(String relativeDir, Path dir, Predicate<String> directoryFilter) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isDirectory()) {
+            removeTree(relativeDir);
+            return;
+        }
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry entry = entries.get(relativeDir);
+        if (entry == null || entry.racy || entry.modified != modified) {
+            Entry newEntry = list(relativeDir, dir, modified);
+            if (entry != null) {
+                for (String directory : entry.directories) {
+                    if (Collections.binarySearch(newEntry.directories, directory) < 0) {
+                        removeTree(childPath(relativeDir, directory));
+                    }
+                }
+            }
+            entries.put(relativeDir, newEntry);
+            // only save when the names change; saving the index itself changes the modified time of the base directory
+            if (entry == null || !entry.files.equals(newEntry.files) || !entry.directories.equals(newEntry.directories)) {
+                dirty = true;
+            }
+            entry = newEntry;
+        }
+        for (String directory : entry.directories) {
+            String childDir = childPath(relativeDir, directory);
+            if (directoryFilter == null || directoryFilter.test(childDir)) {
+                refresh(childDir, dir.resolve(directory), directoryFilter);
+            }
+        }
+    }
+
+    protected Entry list(String relativeDir, Path dir, long modified) throws IOException {
+        long listed = System.currentTimeMillis();
+        List<String> files = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                if (excludes.contains(name) || FileDeleter.isTrash(name) || (relativeDir.isEmpty() && isIndexFile(name))) {
+                    continue;
+                }
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    directories.add(name);
+                } else {
+                    files.add(name);
+                }
+            }
+        }
+        Collections.sort(files);
+        Collections.sort(directories);
+        boolean racy = TimeUnit.MILLISECONDS.toNanos(listed) - modified < RACY_NANOS;
+        return new Entry(modified, racy, files, directories);
+    }
+
+    protected boolean isIndexFile(String name) {
+        return indexFile != null && (name.equals(indexFile.getName()) || name.equals(indexFile.getName() + ".tmp"));
+    }
+
+    protected void removeTree(String relativeDir) {
+        if (entries.remove(relativeDir) != null) {
+            dirty = true;
+        }
+        String prefix = relativeDir.isEmpty() ? "" : relativeDir + "/";
+        // '0' is the character after '/'
+        Map<String, Entry> children = relativeDir.isEmpty() ? entries : entries.subMap(prefix, relativeDir + "0");
+        if (!children.isEmpty()) {
+            children.clear();
+            dirty = true;
+        }
+    }
+
+    protected static String childPath(String relativeDir, String name) {
+        return relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+    }
+
+    protected static List<String> readNames(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> answer = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            answer.add(in.readUTF());
+        }
+        return answer;
+    }
+
+    protected static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * The sorted names of the files and sub directories of a directory
+     */
+    public static class Entry {
+        private final long modified;
+        private final boolean racy;
+        private final List<String> files;
+        private final List<String> directories;
+
+        public Entry(long modified, boolean racy, List<String> files, List<String> directories) {
+            this.modified = modified;
+            this.racy = racy;
+            this.files = Collections.unmodifiableList(files);
+            this.directories = Collections.unmodifiableList(directories);
+        }
+
+        public List<String> getFiles() {
+            return files;
+        }
+
+        public List<String> getDirectories() {
+            return directories;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+import io.jenkins.functions.runtime.helpers.ExecResult;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The resource usage of the processes run by a step
+ */
+public class ProcessMetric {
+    private final LongAdder processes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder wallTimeNanos = new LongAdder();
+    private final LongAdder userCpuNanos = new LongAdder();
+    private final LongAdder systemCpuNanos = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAccumulator peakRssBytes = new LongAccumulator(Math::max, 0);
+
+    public void record(ExecResult result) {
+        processes.increment();
+        if (!result.isSuccess()) {
+            failures.increment();
+        }
+        wallTimeNanos.add(result.getWallTimeNanos());
+        if (result.getUserCpuNanos() > 0) {
+            userCpuNanos.add(result.getUserCpuNanos());
+        }
+        if (result.getSystemCpuNanos() > 0) {
+            systemCpuNanos.add(result.getSystemCpuNanos());
+        }
+        if (result.getOutputBytes() > 0) {
+            outputBytes.add(result.getOutputBytes());
+        }
+        if (result.getErrorBytes() > 0) {
+            outputBytes.add(result.getErrorBytes());
+        }
+        peakRssBytes.accumulate(result.getPeakRssBytes());
+    }
+
+    public ProcessMetricSnapshot snapshot() {
+        return new ProcessMetricSnapshot(processes.sum(), failures.sum(), wallTimeNanos.sum(), userCpuNanos.sum(),
+                systemCpuNanos.sum(), outputBytes.sum(), peakRssBytes.get());
+    }
+}
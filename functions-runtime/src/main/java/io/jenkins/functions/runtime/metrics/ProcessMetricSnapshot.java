@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+/**
+ * A point in time copy of the resource usage of the processes run by a step
+ */
+public class ProcessMetricSnapshot {
+    private final long processes;
+    private final long failures;
+    private final long wallTimeNanos;
+    private final long userCpuNanos;
+    private final long systemCpuNanos;
+    private final long outputBytes;
+    private final long peakRssBytes;
+
+    public ProcessMetricSnapshot(long processes, long failures, long wallTimeNanos, long userCpuNanos, long systemCpuNanos, long outputBytes, long peakRssBytes) {
+        this.processes = processes;
+        this.failures = failures;
+        this.wallTimeNanos = wallTimeNanos;
+        this.userCpuNanos = userCpuNanos;
+        this.systemCpuNanos = systemCpuNanos;
+        this.outputBytes = outputBytes;
+        this.peakRssBytes = peakRssBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessMetricSnapshot{processes: " + processes + " failures: " + failures + " wall: " + wallTimeNanos
+                + "ns user: " + userCpuNanos + "ns system: " + systemCpuNanos + "ns output: " + outputBytes
+                + " peakRss: " + peakRssBytes + "}";
+    }
+
+    public long getProcesses() {
+        return processes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getUserCpuNanos() {
+        return userCpuNanos;
+    }
+
+    public long getSystemCpuNanos() {
+        return systemCpuNanos;
+    }
+
+    /**
+     * Returns the number of bytes written to standard output and standard error
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * Returns the largest peak resident set size of any of the processes
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+}
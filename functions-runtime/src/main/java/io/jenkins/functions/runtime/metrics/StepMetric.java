@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The invocation metrics of a single step
+ */
+public class StepMetric {
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ProcessMetric processes = new ProcessMetric();
+
+    public StepMetric(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "StepMetric{" + name + "}";
+    }
+
+    /**
+     * Records the start of an invocation returning the start time to pass into {@link #stop(long, boolean)}
+     */
+    public long start() {
+        calls.increment();
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of an invocation
+     */
+    public void stop(long startNanos, boolean failed) {
+        latency.record(System.nanoTime() - startNanos);
+        inFlight.decrement();
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public StepMetricSnapshot snapshot() {
+        return new StepMetricSnapshot(name, calls.sum(), errors.sum(), inFlight.sum(), latency.getCount(),
+                latency.getSum(), latency.getMax(), latency.getBucketCounts(), processes.snapshot());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the resource usage of the processes run by the step
+     */
+    public ProcessMetric getProcesses() {
+        return processes;
+    }
+}
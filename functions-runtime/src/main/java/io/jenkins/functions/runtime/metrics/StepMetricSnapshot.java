@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+/**
+ * A point in time copy of the metrics of a step
+ */
+public class StepMetricSnapshot {
+    private final String name;
+    private final long calls;
+    private final long errors;
+    private final long inFlight;
+    private final long latencyCount;
+    private final long latencySum;
+    private final long latencyMax;
+    private final long[] bucketCounts;
+    private final ProcessMetricSnapshot processes;
+
+    public StepMetricSnapshot(String name, long calls, long errors, long inFlight, long latencyCount, long latencySum, long latencyMax, long[] bucketCounts, ProcessMetricSnapshot processes) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.latencyCount = latencyCount;
+        this.latencySum = latencySum;
+        this.latencyMax = latencyMax;
+        this.bucketCounts = bucketCounts;
+        this.processes = processes;
+    }
+
+    @Override
+    public String toString() {
+        return "StepMetricSnapshot{" + name + " calls: " + calls + " errors: " + errors + " inFlight: " + inFlight
+                + " p50: " + getLatencyPercentile(50) + "ns p99: " + getLatencyPercentile(99) + "ns max: " + latencyMax + "ns}";
+    }
+
+    /**
+     * Returns the upper bound in nanoseconds of the bucket containing the given percentile of the recorded latencies
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (latencyCount == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(latencyCount * percentile / 100.0);
+        long total = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            total += bucketCounts[i];
+            if (total >= threshold && total > 0) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), latencyMax);
+            }
+        }
+        return latencyMax;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getLatencyCount() {
+        return latencyCount;
+    }
+
+    public long getLatencySum() {
+        return latencySum;
+    }
+
+    public long getLatencyMax() {
+        return latencyMax;
+    }
+
+    public long[] getBucketCounts() {
+        return bucketCounts;
+    }
+
+    public ProcessMetricSnapshot getProcesses() {
+        return processes;
+    }
+}
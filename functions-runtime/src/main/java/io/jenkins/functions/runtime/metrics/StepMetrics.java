@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+import io.jenkins.functions.runtime.helpers.ExecResult;
+import io.jenkins.functions.runtime.helpers.Systems;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry of the invocation metrics of all steps.
+ * <br>
+ * Metrics are disabled by default; enable them via {@link #setEnabled(boolean)} or the
+ * <code>STEP_FUNCTION_METRICS</code> environment variable.
+ */
+public class StepMetrics {
+    public static final String ENABLED_ENV_VAR = "STEP_FUNCTION_METRICS";
+
+    private static final StepMetrics instance = new StepMetrics(Boolean.parseBoolean(Systems.getEnvVar(ENABLED_ENV_VAR, "false")));
+
+    private final ConcurrentMap<String, StepMetric> metrics = new ConcurrentHashMap<>();
+    private final ThreadLocal<StepMetric> currentMetric = new ThreadLocal<>();
+    private volatile boolean enabled;
+
+    public StepMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static StepMetrics getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the metric for the given step name, lazily creating it if required
+     */
+    public StepMetric getMetric(String name) {
+        StepMetric answer = metrics.get(name);
+        if (answer == null) {
+            answer = metrics.computeIfAbsent(name, StepMetric::new);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the metric of the step being invoked by the current thread or null if there is none
+     */
+    public StepMetric getCurrentMetric() {
+        return currentMetric.get();
+    }
+
+    /**
+     * Sets the metric of the step being invoked by the current thread returning the previous value
+     * so that it can be restored when the step completes
+     */
+    public StepMetric setCurrentMetric(StepMetric metric) {
+        StepMetric answer = currentMetric.get();
+        if (metric != null) {
+            currentMetric.set(metric);
+        } else {
+            currentMetric.remove();
+        }
+        return answer;
+    }
+
+    /**
+     * Records the resource usage of a process against the step being invoked by the current thread
+     */
+    public void recordProcess(ExecResult result) {
+        if (enabled) {
+            StepMetric metric = currentMetric.get();
+            if (metric != null) {
+                metric.getProcesses().record(result);
+            }
+        }
+    }
+
+    /**
+     * Removes all the metrics
+     */
+    public void clear() {
+        metrics.clear();
+    }
+
+    /**
+     * Returns a snapshot of the metrics of all the steps sorted by step name
+     */
+    public List<StepMetricSnapshot> snapshot() {
+        List<StepMetricSnapshot> answer = new ArrayList<>();
+        for (StepMetric metric : metrics.values()) {
+            answer.add(metric.snapshot());
+        }
+        answer.sort(Comparator.comparing(StepMetricSnapshot::getName));
+        return answer;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format to the given file
+     */
+    public void writePrometheus(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writePrometheus(out);
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format to the given stream
+     */
+    public void writePrometheus(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writePrometheus(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format to the given writer
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        List<StepMetricSnapshot> snapshots = snapshot();
+        PrintWriter out = new PrintWriter(writer);
+
+        out.println("# HELP step_invocations_total The number of step invocations");
+        out.println("# TYPE step_invocations_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_invocations_total" + labels(snapshot) + " " + snapshot.getCalls());
+        }
+        out.println("# HELP step_errors_total The number of step invocations which failed");
+        out.println("# TYPE step_errors_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_errors_total" + labels(snapshot) + " " + snapshot.getErrors());
+        }
+        out.println("# HELP step_in_flight The number of step invocations currently running");
+        out.println("# TYPE step_in_flight gauge");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_in_flight" + labels(snapshot) + " " + snapshot.getInFlight());
+        }
+        out.println("# HELP step_duration_seconds The duration of step invocations");
+        out.println("# TYPE step_duration_seconds histogram");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            String name = escape(snapshot.getName());
+            long[] buckets = snapshot.getBucketCounts();
+            long cumulative = 0;
+            // only write the range of buckets in use to keep the output small
+            int first = 0;
+            while (first < buckets.length && buckets[first] == 0) {
+                first++;
+            }
+            int last = buckets.length - 1;
+            while (last > first && buckets[last] == 0) {
+                last--;
+            }
+            for (int i = first; i <= last && i < buckets.length; i++) {
+                cumulative += buckets[i];
+                out.println("step_duration_seconds_bucket{step=\"" + name + "\",le=\""
+                        + toSeconds(LatencyHistogram.bucketUpperBound(i)) + "\"} " + cumulative);
+            }
+            out.println("step_duration_seconds_bucket{step=\"" + name + "\",le=\"+Inf\"} " + snapshot.getLatencyCount());
+            out.println("step_duration_seconds_sum" + labels(snapshot) + " " + toSeconds(snapshot.getLatencySum()));
+            out.println("step_duration_seconds_count" + labels(snapshot) + " " + snapshot.getLatencyCount());
+        }
+        out.println("# HELP step_processes_total The number of processes run by steps");
+        out.println("# TYPE step_processes_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_processes_total" + labels(snapshot) + " " + snapshot.getProcesses().getProcesses());
+        }
+        out.println("# HELP step_process_failures_total The number of processes run by steps which failed");
+        out.println("# TYPE step_process_failures_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_process_failures_total" + labels(snapshot) + " " + snapshot.getProcesses().getFailures());
+        }
+        out.println("# HELP step_process_seconds_total The wall clock time of processes run by steps");
+        out.println("# TYPE step_process_seconds_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_process_seconds_total" + labels(snapshot) + " " + toSeconds(snapshot.getProcesses().getWallTimeNanos()));
+        }
+        out.println("# HELP step_process_cpu_seconds_total The CPU time of processes run by steps");
+        out.println("# TYPE step_process_cpu_seconds_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            String name = escape(snapshot.getName());
+            out.println("step_process_cpu_seconds_total{step=\"" + name + "\",mode=\"user\"} " + toSeconds(snapshot.getProcesses().getUserCpuNanos()));
+            out.println("step_process_cpu_seconds_total{step=\"" + name + "\",mode=\"system\"} " + toSeconds(snapshot.getProcesses().getSystemCpuNanos()));
+        }
+        out.println("# HELP step_process_output_bytes_total The bytes written to standard output and error by processes run by steps");
+        out.println("# TYPE step_process_output_bytes_total counter");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_process_output_bytes_total" + labels(snapshot) + " " + snapshot.getProcesses().getOutputBytes());
+        }
+        out.println("# HELP step_process_peak_rss_bytes The largest peak resident set size of a process run by steps");
+        out.println("# TYPE step_process_peak_rss_bytes gauge");
+        for (StepMetricSnapshot snapshot : snapshots) {
+            out.println("step_process_peak_rss_bytes" + labels(snapshot) + " " + snapshot.getProcesses().getPeakRssBytes());
+        }
+        out.flush();
+    }
+
+    protected static String labels(StepMetricSnapshot snapshot) {
+        return "{step=\"" + escape(snapshot.getName()) + "\"}";
+    }
+
+    protected static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    protected static String toSeconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.support;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.FunctionContext;
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.StepMetadata;
+import io.jenkins.functions.runtime.cache.StepCacheKey;
+import io.jenkins.functions.runtime.cache.StepResultCache;
+import io.jenkins.functions.runtime.helpers.Loggers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps a step function so that its results and output files are reused from a {@link StepResultCache}
+ * when the step, its arguments and its input files have not changed since a previous invocation.
+ */
+public class CachingStepFunction implements StepFunction {
+    private final StepFunction delegate;
+    private final StepResultCache cache;
+    private final List<String> inputFiles;
+    private final List<String> outputFiles;
+
+    /**
+     * @param delegate    the step function to cache
+     * @param cache       the cache to use
+     * @param inputFiles  the files or directories relative to the current directory which the step reads
+     * @param outputFiles the files or directories relative to the current directory which the step writes
+     */
+    public CachingStepFunction(StepFunction delegate, StepResultCache cache, List<String> inputFiles, List<String> outputFiles) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.inputFiles = inputFiles != null ? new ArrayList<>(inputFiles) : Collections.emptyList();
+        this.outputFiles = outputFiles != null ? new ArrayList<>(outputFiles) : Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingStepFunction{" + delegate + "}";
+    }
+
+    @Override
+    public Object invoke(Map<String, Object> arguments, FunctionContext context) {
+        Logger logger = Loggers.notNull(context.getLogger());
+        File currentDir = context.getCurrentDir();
+        String key;
+        try {
+            key = createKey(arguments, context);
+        } catch (IOException e) {
+            logger.warn("Could not create cache key for " + delegate + " so not caching: " + e);
+            return delegate.invoke(arguments, context);
+        }
+        StepResultCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            try {
+                Object result = entry.getResult(getClassLoader());
+                entry.restoreOutputFiles(currentDir);
+                logger.info("Reusing cached result of step " + getMetadata().getName());
+                return result;
+            } catch (Exception e) {
+                // the entry may have been evicted by another build while we were reading it
+                logger.warn("Could not read cached result of step " + getMetadata().getName() + ": " + e);
+            }
+        }
+        Object result = delegate.invoke(arguments, context);
+        if (result == null || result instanceof Serializable) {
+            try {
+                cache.put(key, result, currentDir, outputFiles);
+            } catch (IOException e) {
+                logger.warn("Could not cache result of step " + getMetadata().getName() + ": " + e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> getArguments(Map<String, Object> arguments, FunctionContext context) {
+        return delegate.getArguments(arguments, context);
+    }
+
+    @Override
+    public StepMetadata getMetadata() {
+        return delegate.getMetadata();
+    }
+
+    public StepFunction getDelegate() {
+        return delegate;
+    }
+
+    public StepResultCache getCache() {
+        return cache;
+    }
+
+    public List<String> getInputFiles() {
+        return Collections.unmodifiableList(inputFiles);
+    }
+
+    public List<String> getOutputFiles() {
+        return Collections.unmodifiableList(outputFiles);
+    }
+
+    protected String createKey(Map<String, Object> arguments, FunctionContext context) throws IOException {
+        StepCacheKey key = new StepCacheKey();
+        key.addStep(getMetadata());
+        key.addArguments(arguments);
+        for (String inputFile : inputFiles) {
+            key.addInputFile(context.getCurrentDir(), inputFile);
+        }
+        for (String outputFile : outputFiles) {
+            key.addOutputFile(outputFile);
+        }
+        return key.toString();
+    }
+
+    protected ClassLoader getClassLoader() {
+        Class<?> clazz = getMetadata().getImplementationClass();
+        if (clazz != null && clazz.getClassLoader() != null) {
+            return clazz.getClassLoader();
+        }
+        return getClass().getClassLoader();
+    }
+}
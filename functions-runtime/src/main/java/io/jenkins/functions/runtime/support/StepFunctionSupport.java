@@ -17,15 +17,23 @@ package io.jenkins.functions.runtime.support;
 
 import io.jenkins.functions.Logger;
 import io.jenkins.functions.runtime.FunctionContext;
+import io.jenkins.functions.runtime.FunctionSupport;
 import io.jenkins.functions.runtime.StepFunction;
 import io.jenkins.functions.runtime.StepMetadata;
+import io.jenkins.functions.runtime.helpers.CloseableIterator;
 import io.jenkins.functions.runtime.helpers.Strings;
+import io.jenkins.functions.runtime.metrics.StepMetric;
+import io.jenkins.functions.runtime.metrics.StepMetrics;
+import io.jenkins.functions.runtime.trace.Span;
+import io.jenkins.functions.runtime.trace.Tracer;
 import org.apache.commons.beanutils.PropertyUtils;
 
 import java.beans.PropertyDescriptor;
 import java.io.File;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.stream.BaseStream;
 
 /**
  */
@@ -57,8 +65,59 @@ public abstract class StepFunctionSupport implements StepFunction {
 
     @Override
     public Object invoke(Map<String, Object> arguments, FunctionContext context) {
+        StepMetrics metrics = StepMetrics.getInstance();
+        Tracer tracer = Tracer.getInstance();
+        if (!metrics.isEnabled() && !tracer.isEnabled()) {
+            return doInvoke(arguments, context);
+        }
+        StepMetric metric = metrics.isEnabled() ? metrics.getMetric(getName()) : null;
+        StepMetric previousMetric = metric != null ? metrics.setCurrentMetric(metric) : null;
+        long start = metric != null ? metric.start() : 0L;
+        boolean failed = true;
+        try (Span span = tracer.startSpan(getName(), "step")) {
+            try {
+                Object answer = doInvoke(arguments, context);
+                failed = false;
+                return answer;
+            } catch (RuntimeException e) {
+                span.addArg("error", e.toString());
+                throw e;
+            }
+        } finally {
+            if (metric != null) {
+                metric.stop(start, failed);
+                metrics.setCurrentMetric(previousMetric);
+            }
+        }
+    }
+
+    protected Object doInvoke(Map<String, Object> arguments, FunctionContext context) {
         Object object = createFunctionObject(context);
-        return invokeOnInstance(arguments, context, object);
+        Object answer;
+        try {
+            answer = invokeOnInstance(arguments, context, object);
+        } catch (RuntimeException | Error e) {
+            closeFunctionObject(object);
+            throw e;
+        }
+        if (answer instanceof BaseStream) {
+            // streaming results may still run commands as they are consumed so the function object is closed with them
+            return ((BaseStream<?, ?>) answer).onClose(() -> closeFunctionObject(object));
+        }
+        if (answer instanceof Iterator) {
+            return new CloseableIterator<>((Iterator<?>) answer, () -> closeFunctionObject(object));
+        }
+        closeFunctionObject(object);
+        return answer;
+    }
+
+    /**
+     * Releases the resources of the function object once it has been invoked; e.g. a {@link FunctionSupport} shell session
+     */
+    protected void closeFunctionObject(Object object) {
+        if (object instanceof FunctionSupport) {
+            ((FunctionSupport) object).close();
+        }
     }
 
     @Override
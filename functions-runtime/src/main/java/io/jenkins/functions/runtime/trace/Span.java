@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a timed operation such as a step invocation or a command. Spans are closed using a Java
+ * try-with-resources block:
+ * <br>
+ * <code>
+ * try (Span span = Tracer.getInstance().startSpan("name", "category")) { ... }
+ * </code>
+ */
+public class Span implements AutoCloseable {
+    /**
+     * The span used when tracing is disabled
+     */
+    public static final Span NOOP = new Span(null, 0, null, null, "", "", 0) {
+        @Override
+        public Span addArg(String name, Object value) {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final Tracer tracer;
+    private final long id;
+    private final Span parent;
+    private final Span previous;
+    private final String name;
+    private final String category;
+    private final long threadId;
+    private final String threadName;
+    private final long startNanos;
+    private long endNanos;
+    private Map<String, Object> args;
+
+    Span(Tracer tracer, long id, Span parent, Span previous, String name, String category, long startNanos) {
+        this.tracer = tracer;
+        this.id = id;
+        this.parent = parent;
+        this.previous = previous;
+        this.name = name;
+        this.category = category;
+        this.startNanos = startNanos;
+        Thread thread = Thread.currentThread();
+        this.threadId = thread.getId();
+        this.threadName = thread.getName();
+    }
+
+    @Override
+    public String toString() {
+        return "Span{" + id + " " + category + ":" + name + "}";
+    }
+
+    /**
+     * Adds an argument to the span which is written with the span
+     */
+    public Span addArg(String name, Object value) {
+        if (args == null) {
+            args = new LinkedHashMap<>();
+        }
+        args.put(name, value);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        endNanos = System.nanoTime();
+        tracer.endSpan(this);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Span getParent() {
+        return parent;
+    }
+
+    public long getParentId() {
+        return parent != null ? parent.getId() : 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    public Map<String, Object> getArgs() {
+        return args;
+    }
+
+    Span getPrevious() {
+        return previous;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.trace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes spans on a background thread as Chrome trace events so that tracing does not slow down the traced code.
+ * <br>
+ * If the background thread falls behind then spans are dropped rather than blocking the caller.
+ */
+public class TraceWriter implements Closeable {
+    private static final int QUEUE_SIZE = 64 * 1024;
+    private static final Span CLOSE = new Span(null, -1, null, null, "", "", 0);
+
+    private final File file;
+    private final Writer writer;
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final long pid = currentPid();
+    private final Thread thread;
+    private boolean first = true;
+    private volatile IOException failure;
+
+    public TraceWriter(File file) throws IOException {
+        this.file = file;
+        File parentFile = file.getAbsoluteFile().getParentFile();
+        if (parentFile != null) {
+            parentFile.mkdirs();
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        this.writer.write("{\"traceEvents\":[\n");
+        this.thread = new Thread(this::run, "step-trace-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public String toString() {
+        return "TraceWriter{" + file + "}";
+    }
+
+    /**
+     * Queues the span to be written
+     */
+    public void write(Span span) {
+        if (failure != null || !queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // the thread stops without draining the queue if writing fails so only wait while it is running
+            while (thread.isAlive() && !queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+                // retry
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the number of spans which were dropped as the writer could not keep up
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    protected void run() {
+        try {
+            while (true) {
+                Span span = queue.take();
+                if (span == CLOSE) {
+                    break;
+                }
+                writeEvent(span);
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.write("\n],\"otherData\":{\"droppedSpans\":" + dropped.get() + "}}\n");
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+        } catch (InterruptedException e) {
+            // ignore
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    protected void writeEvent(Span span) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        if (!first) {
+            builder.append(",\n");
+        }
+        first = false;
+        builder.append("{\"name\":");
+        appendString(builder, span.getName());
+        builder.append(",\"cat\":");
+        appendString(builder, span.getCategory());
+        builder.append(",\"ph\":\"X\",\"ts\":");
+        builder.append((span.getStartNanos() - startNanos) / 1000);
+        builder.append(",\"dur\":");
+        builder.append((span.getEndNanos() - span.getStartNanos()) / 1000);
+        builder.append(",\"pid\":").append(pid);
+        builder.append(",\"tid\":").append(span.getThreadId());
+        builder.append(",\"args\":{\"id\":").append(span.getId());
+        builder.append(",\"parentId\":").append(span.getParentId());
+        builder.append(",\"thread\":");
+        appendString(builder, span.getThreadName());
+        Map<String, Object> args = span.getArgs();
+        if (args != null) {
+            for (Map.Entry<String, Object> entry : args.entrySet()) {
+                builder.append(",");
+                appendString(builder, entry.getKey());
+                builder.append(":");
+                Object value = entry.getValue();
+                if (value instanceof Number || value instanceof Boolean) {
+                    builder.append(value);
+                } else {
+                    appendString(builder, String.valueOf(value));
+                }
+            }
+        }
+        builder.append("}}");
+        writer.write(builder.toString());
+    }
+
+    protected static long currentPid() {
+        // the runtime name is of the form pid@hostname
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int idx = name.indexOf('@');
+        try {
+            return Long.parseLong(idx > 0 ? name.substring(0, idx) : name);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    protected static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        if (value != null) {
+            for (int i = 0, size = value.length(); i < size; i++) {
+                char ch = value.charAt(i);
+                switch (ch) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (ch < 0x20) {
+                            builder.append(String.format("\\u%04x", (int) ch));
+                        } else {
+                            builder.append(ch);
+                        }
+                }
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.trace;
+
+import io.jenkins.functions.runtime.helpers.Strings;
+import io.jenkins.functions.runtime.helpers.Systems;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates nested {@link Span} objects for step invocations, commands and blocks which are written asynchronously
+ * to a trace file in the Chrome trace event format so they can be viewed in <code>chrome://tracing</code>.
+ * <br>
+ * Tracing is disabled until {@link #start(File)} is called or the <code>STEP_FUNCTION_TRACE_FILE</code>
+ * environment variable is set.
+ */
+public class Tracer {
+    public static final String TRACE_FILE_ENV_VAR = "STEP_FUNCTION_TRACE_FILE";
+
+    private static final Tracer instance = createDefault();
+
+    private final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+    private final AtomicLong ids = new AtomicLong();
+    private volatile TraceWriter writer;
+
+    public static Tracer getInstance() {
+        return instance;
+    }
+
+    private static Tracer createDefault() {
+        final Tracer tracer = new Tracer();
+        String fileName = Systems.getEnvVar(TRACE_FILE_ENV_VAR, null);
+        if (Strings.notEmpty(fileName)) {
+            try {
+                tracer.start(new File(fileName));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        tracer.stop();
+                    } catch (IOException e) {
+                        System.err.println("WARNING failed to close trace file " + fileName + ": " + e);
+                    }
+                }));
+            } catch (IOException e) {
+                System.err.println("WARNING failed to create trace file " + fileName + ": " + e);
+            }
+        }
+        return tracer;
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Starts writing spans to the given file
+     */
+    public synchronized void start(File file) throws IOException {
+        stop();
+        writer = new TraceWriter(file);
+    }
+
+    /**
+     * Stops tracing, waiting for all the pending spans to be written and closing the trace file
+     */
+    public synchronized void stop() throws IOException {
+        TraceWriter oldWriter = writer;
+        writer = null;
+        if (oldWriter != null) {
+            oldWriter.close();
+        }
+    }
+
+    /**
+     * Starts a span which is a child of the current span of this thread
+     */
+    public Span startSpan(String name, String category) {
+        if (writer == null) {
+            return Span.NOOP;
+        }
+        Span previous = currentSpan.get();
+        return startSpan(name, category, previous, previous);
+    }
+
+    /**
+     * Starts a span with the given parent; which is useful when the parent span was created on another thread
+     */
+    public Span startSpan(String name, String category, Span parent) {
+        if (writer == null) {
+            return Span.NOOP;
+        }
+        if (parent == Span.NOOP) {
+            parent = null;
+        }
+        return startSpan(name, category, parent, currentSpan.get());
+    }
+
+    protected Span startSpan(String name, String category, Span parent, Span previous) {
+        Span span = new Span(this, ids.incrementAndGet(), parent, previous, name, category, System.nanoTime());
+        currentSpan.set(span);
+        return span;
+    }
+
+    /**
+     * Returns the current span of this thread or null if there is none
+     */
+    public Span getCurrentSpan() {
+        return currentSpan.get();
+    }
+
+    /**
+     * Returns a block which evaluates the given block as a child of the current span
+     * even if the block is invoked on a different thread
+     */
+    public <T> Callable<T> wrap(String name, String category, Callable<T> callable) {
+        if (writer == null) {
+            return callable;
+        }
+        final Span parent = currentSpan.get();
+        return () -> {
+            try (Span span = startSpan(name, category, parent)) {
+                return callable.call();
+            }
+        };
+    }
+
+    void endSpan(Span span) {
+        if (currentSpan.get() == span) {
+            Span previous = span.getPrevious();
+            if (previous != null) {
+                currentSpan.set(previous);
+            } else {
+                currentSpan.remove();
+            }
+        }
+        TraceWriter w = writer;
+        if (w != null) {
+            w.write(span);
+        }
+    }
+}
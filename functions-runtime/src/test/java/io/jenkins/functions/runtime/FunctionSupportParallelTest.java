@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime;
+
+import io.jenkins.functions.runtime.helpers.FailedBuildException;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FunctionSupportParallelTest {
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private FunctionSupport functionSupport = new FunctionSupport();
+
+    public FunctionSupportParallelTest() {
+        PrintStream out = new PrintStream(output, true);
+        functionSupport.setLogger(new DefaultLogger(out, out));
+    }
+
+    @Test
+    public void testBranchesHaveIsolatedState() throws Exception {
+        File root = new File(".").getCanonicalFile();
+        Map<String, Callable<String>> branches = new LinkedHashMap<>();
+        for (int i = 0; i < 8; i++) {
+            String name = "branch" + i;
+            File dir = new File("target/parallel/" + name).getAbsoluteFile();
+            dir.mkdirs();
+            branches.put(name, () -> {
+                functionSupport.setCurrentDir(dir);
+                functionSupport.setEnv(Collections.singletonMap("BRANCH", name));
+                Thread.sleep(10);
+                return functionSupport.shOutput("echo $BRANCH $(basename $(pwd))").trim();
+            });
+        }
+
+        Map<String, String> results = functionSupport.parallel(branches);
+
+        assertThat(results.keySet()).containsExactly(branches.keySet().toArray(new String[0]));
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            assertThat(entry.getValue()).isEqualTo(entry.getKey() + " " + entry.getKey());
+        }
+        assertThat(functionSupport.getCurrentDir().getCanonicalFile()).isEqualTo(root);
+        assertThat(functionSupport.getEnv()).isEmpty();
+        assertThat(output.toString()).contains("[branch3] $> echo");
+    }
+
+    @Test
+    public void testNestedScopes() throws Exception {
+        File dir = new File("target/scopes").getAbsoluteFile();
+        dir.mkdirs();
+        functionSupport.setEnv(Collections.singletonMap("A", "1"));
+
+        String output = functionSupport.dir(dir, () -> functionSupport.withEnv(Collections.singletonMap("B", "2"), () -> {
+            assertThat(functionSupport.getEnv()).containsEntry("A", "1").containsEntry("B", "2");
+            return functionSupport.shOutput("echo $A$B $(basename $(pwd))").trim();
+        }));
+
+        assertThat(output).isEqualTo("12 scopes");
+        assertThat(functionSupport.getEnv()).hasSize(1);
+        assertThat(functionSupport.getCurrentDir()).isEqualTo(new File("."));
+    }
+
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<String, Callable<Integer>> branches = new LinkedHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            int value = i;
+            branches.put("branch" + i, () -> {
+                int count = running.incrementAndGet();
+                maxRunning.accumulateAndGet(count, Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return value;
+            });
+        }
+
+        Map<String, Integer> results = functionSupport.parallel(branches, 3, true);
+
+        assertThat(results).hasSize(12);
+        assertThat(results.get("branch7")).isEqualTo(7);
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void testCollectAllFailures() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        Map<String, Callable<Integer>> branches = new LinkedHashMap<>();
+        branches.put("bad", () -> {
+            throw new IllegalStateException("boom");
+        });
+        for (int i = 0; i < 4; i++) {
+            branches.put("good" + i, () -> {
+                Thread.sleep(20);
+                return completed.incrementAndGet();
+            });
+        }
+
+        try {
+            functionSupport.parallel(branches, 2, false);
+            throw new AssertionError("should have failed");
+        } catch (FailedBuildException e) {
+            assertThat(e.getMessage()).contains("[bad]");
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(completed.get()).isEqualTo(4);
+    }
+}
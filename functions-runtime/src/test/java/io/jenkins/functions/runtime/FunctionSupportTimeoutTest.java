@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime;
+
+import io.jenkins.functions.runtime.helpers.CapturedOutput;
+import io.jenkins.functions.runtime.helpers.FailedBuildException;
+import io.jenkins.functions.runtime.helpers.ProcessHelperTest;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FunctionSupportTimeoutTest {
+    private final FunctionSupport functionSupport = new FunctionSupport();
+    private final String marker = "timeout-" + UUID.randomUUID();
+    // the marker is in the command line of a child process as the batch writes its commands to the shell's input
+    private final String command = "echo started; bash -c 'sleep 300; : " + marker + "'";
+
+    public FunctionSupportTimeoutTest() {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+        functionSupport.setLogger(new DefaultLogger(out, out));
+    }
+
+    @Test(timeout = 60000)
+    public void testCaptureOutputTimesOut() throws Exception {
+        assertKilled(() -> {
+            try (CapturedOutput output = functionSupport.shCaptureOutput(command)) {
+                return output;
+            }
+        });
+    }
+
+    @Test(timeout = 60000)
+    public void testOutputLinesStreamTimesOut() throws Exception {
+        assertKilled(() -> {
+            try (Stream<String> lines = functionSupport.shOutputLines(command)) {
+                return lines.count();
+            }
+        });
+    }
+
+    @Test(timeout = 60000)
+    public void testOutputLinesConsumerTimesOut() throws Exception {
+        assertKilled(() -> functionSupport.shOutputLines(command, line -> true));
+    }
+
+    @Test(timeout = 60000)
+    public void testBatchTimesOut() throws Exception {
+        assertKilled(() -> functionSupport.shBatch(Arrays.asList("echo first", command)));
+    }
+
+    protected void assertKilled(Callable<Object> block) throws Exception {
+        long start = System.nanoTime();
+        try {
+            functionSupport.timeout(500, TimeUnit.MILLISECONDS, block);
+            throw new AssertionError("should have timed out");
+        } catch (FailedBuildException e) {
+            // expected
+        }
+        assertThat(System.nanoTime() - start).describedAs("time to time out").isLessThan(TimeUnit.SECONDS.toNanos(30));
+        if (new File("/proc/self/stat").exists()) {
+            assertThat(ProcessHelperTest.isRunning(marker)).describedAs("command running after timeout").isFalse();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.helpers.ProcessHelper;
+import io.jenkins.functions.runtime.helpers.ProcessHelperTest;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class StepResultsTest {
+
+    @Test
+    public void testStopEarlyClosesStream() throws Exception {
+        AtomicInteger produced = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<Integer> result = IntStream.range(0, 1000000).boxed().peek(i -> produced.incrementAndGet()).onClose(() -> closed.set(true));
+
+        List<Object> values = new ArrayList<>();
+        long count = StepResults.forEach(result, value -> values.add(value) && values.size() < 10);
+
+        assertThat(count).isEqualTo(10);
+        assertThat(values).hasSize(10);
+        assertThat(produced.get()).describedAs("values produced").isEqualTo(10);
+        assertThat(closed.get()).describedAs("stream closed").isTrue();
+    }
+
+    @Test
+    public void testBufferedReadAheadIsBounded() throws Exception {
+        AtomicInteger produced = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<Integer> result = IntStream.range(0, 1000000).boxed().peek(i -> produced.incrementAndGet()).onClose(() -> closed.set(true));
+
+        int bufferSize = 16;
+        long count = StepResults.forEach(result, bufferSize, value -> ((Integer) value) < 99);
+
+        assertThat(count).isEqualTo(100);
+        assertThat(produced.get()).describedAs("values produced").isLessThanOrEqualTo(100 + bufferSize + 1);
+        for (int i = 0; i < 100 && !closed.get(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(closed.get()).describedAs("stream closed").isTrue();
+
+        assertThat(StepResults.forEach(Stream.of("a", "b", "c"), bufferSize, value -> true)).isEqualTo(3);
+    }
+
+    @Test(timeout = 60000)
+    public void testBufferedCloseKillsBlockedProcess() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+        String marker = "blocked-" + UUID.randomUUID();
+
+        // the producer is blocked reading the output of sleep when the consumer stops
+        Stream<String> result = ProcessHelper.runCommandStreamOutput(new File("."), logger, null, "bash", "-c", "echo a; echo b; sleep 20; : " + marker);
+        assertThat(StepResults.forEach(result, 16, value -> false)).isEqualTo(1);
+        if (new File("/proc/self/stat").exists()) {
+            assertThat(ProcessHelperTest.isRunning(marker)).describedAs("process running after close").isFalse();
+        }
+    }
+
+    @Test
+    public void testNonStreamingResult() throws Exception {
+        assertThat(StepResults.isStreaming("Hello")).isFalse();
+        assertThat(StepResults.toList("Hello")).containsExactly("Hello");
+        assertThat(StepResults.isStreamingType(Stream.class)).isTrue();
+    }
+}
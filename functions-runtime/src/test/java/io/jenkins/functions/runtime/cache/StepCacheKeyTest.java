@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class StepCacheKeyTest {
+
+    @Test
+    public void testArgumentTypesAreKeyed() throws Exception {
+        assertThat(key("1")).isNotEqualTo(key(1));
+        assertThat(key(1)).isNotEqualTo(key(1L));
+        assertThat(key(Arrays.asList("a", "b"))).isNotEqualTo(key("[a, b]"));
+        assertThat(key(Arrays.asList("a, b"))).isNotEqualTo(key(Arrays.asList("a", "b")));
+        assertThat(key(new String[]{"a"})).isNotEqualTo(key(Collections.singletonList("a")));
+        assertThat(key(null)).isNotEqualTo(key("null"));
+
+        assertThat(key(Arrays.asList("a", 1))).isEqualTo(key(Arrays.asList("a", 1)));
+        assertThat(key(new int[]{1, 2})).isEqualTo(key(new int[]{1, 2}));
+        assertThat(key(new HashSet<>(Arrays.asList("x", "y", "z")))).isEqualTo(key(new LinkedHashSet<>(Arrays.asList("z", "y", "x"))));
+    }
+
+    @Test
+    public void testOutputFilesAreKeyed() throws Exception {
+        String first = new StepCacheKey().addArguments(Collections.singletonMap("a", "b")).addOutputFile("target/one").toString();
+        String second = new StepCacheKey().addArguments(Collections.singletonMap("a", "b")).addOutputFile("target/two").toString();
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    protected static String key(Object value) {
+        return new StepCacheKey().addArguments(Collections.singletonMap("value", value)).toString();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.cache;
+
+import io.jenkins.functions.runtime.FunctionContext;
+import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.StepFunctions;
+import io.jenkins.functions.runtime.StepMetadata;
+import io.jenkins.functions.runtime.support.CachingStepFunction;
+import io.jenkins.functions.sample.HelloFunction;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class StepResultCacheTest {
+
+    @Test
+    public void testCachesResultsUntilInputsChange() throws Exception {
+        File workDir = Files.createTempDirectory("workspace").toFile();
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        File input = new File(workDir, "input.txt");
+        File output = new File(workDir, "target/output.txt");
+        Files.write(input.toPath(), "one".getBytes(StandardCharsets.UTF_8));
+
+        final AtomicInteger invocations = new AtomicInteger();
+        final StepFunction hello = StepFunctions.loadFunction("hello", HelloFunction.class);
+        StepFunction counting = new StepFunction() {
+            @Override
+            public Object invoke(Map<String, Object> arguments, FunctionContext context) {
+                invocations.incrementAndGet();
+                try {
+                    output.getParentFile().mkdirs();
+                    Files.write(output.toPath(), "generated".getBytes(StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return hello.invoke(arguments, context);
+            }
+
+            @Override
+            public Map<String, Object> getArguments(Map<String, Object> arguments, FunctionContext context) {
+                return hello.getArguments(arguments, context);
+            }
+
+            @Override
+            public StepMetadata getMetadata() {
+                return hello.getMetadata();
+            }
+        };
+        StepFunction function = new CachingStepFunction(counting, new StepResultCache(cacheDir),
+                Arrays.asList("input.txt"), Collections.singletonList("target"));
+
+        FunctionContext context = new FunctionContext();
+        context.setCurrentDir(workDir);
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("name", "James");
+
+        assertThat(function.invoke(arguments, context)).isEqualTo("Hello James");
+        assertThat(invocations.get()).isEqualTo(1);
+
+        assertThat(output.delete()).isTrue();
+        assertThat(function.invoke(arguments, context)).isEqualTo("Hello James");
+        assertThat(invocations.get()).describedAs("invocations after cache hit").isEqualTo(1);
+        assertThat(output).describedAs("restored output file").exists();
+
+        arguments.put("name", "Rob");
+        assertThat(function.invoke(arguments, context)).isEqualTo("Hello Rob");
+        assertThat(invocations.get()).describedAs("invocations after argument change").isEqualTo(2);
+
+        Files.write(input.toPath(), "two".getBytes(StandardCharsets.UTF_8));
+        assertThat(function.invoke(arguments, context)).isEqualTo("Hello Rob");
+        assertThat(invocations.get()).describedAs("invocations after input change").isEqualTo(3);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws Exception {
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        StepResultCache cache = new StepResultCache(cacheDir, 1);
+
+        String key = new StepCacheKey().addArguments(Collections.singletonMap("name", "James")).toString();
+        assertThat(cache.put(key, "Hello James", cacheDir, null)).isTrue();
+        assertThat(cache.get(key)).describedAs("entry bigger than the cache size").isNull();
+    }
+
+    @Test
+    public void testOnlyScansCacheWhenItMayBeFull() throws Exception {
+        File cacheDir = Files.createTempDirectory("cache").toFile();
+        AtomicInteger scans = new AtomicInteger();
+        StepResultCache cache = new StepResultCache(cacheDir, 20000) {
+            @Override
+            public synchronized void evict() throws IOException {
+                scans.incrementAndGet();
+                super.evict();
+            }
+        };
+
+        char[] value = new char[1000];
+        Arrays.fill(value, 'x');
+        for (int i = 0; i < 10; i++) {
+            cache.put(new StepCacheKey().addArguments(Collections.singletonMap("i", i)).toString(), new String(value), cacheDir, null);
+        }
+        // the cache is only scanned to find its initial size
+        assertThat(scans.get()).isEqualTo(1);
+
+        for (int i = 10; i < 40; i++) {
+            cache.put(new StepCacheKey().addArguments(Collections.singletonMap("i", i)).toString(), new String(value), cacheDir, null);
+        }
+        assertThat(scans.get() > 1 && scans.get() <= 10).describedAs("scans after the cache filled up").isTrue();
+        assertThat(StepResultCache.size(cacheDir.toPath())).isLessThanOrEqualTo(20000L);
+        assertThat(cache.get(new StepCacheKey().addArguments(Collections.singletonMap("i", 39)).toString())).isNotNull();
+    }
+}
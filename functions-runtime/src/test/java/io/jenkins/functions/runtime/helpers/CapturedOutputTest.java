@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class CapturedOutputTest {
+    private File spillDir = new File("target/test-captured-output");
+
+    @Test
+    public void testSmallOutputStaysInMemory() throws Exception {
+        try (CapturedOutput output = new CapturedOutput(spillDir, 100)) {
+            output.appendLine("hello");
+            output.complete();
+            assertThat(output.isSpilled()).isFalse();
+            assertThat(output.toString()).isEqualTo("hello\n");
+        }
+    }
+
+    @Test
+    public void testLargeOutputIsSpilled() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        File spillFile;
+        try (CapturedOutput output = new CapturedOutput(spillDir, 100)) {
+            for (int i = 0; i < 10000; i++) {
+                String line = "line " + i + " \u00e9\ud83d\ude00";
+                output.appendLine(line);
+                expected.append(line).append('\n');
+            }
+            output.complete();
+            spillFile = output.getSpillFile();
+
+            assertThat(output.isSpilled()).isTrue();
+            assertThat(spillFile.exists()).isTrue();
+            assertThat(output.length()).isEqualTo(expected.length());
+            assertThat(output.charAt(5)).isEqualTo(expected.charAt(5));
+            assertThat(output.charAt(expected.length() - 2)).isEqualTo(expected.charAt(expected.length() - 2));
+            assertThat(output.subSequence(90, 200).toString()).isEqualTo(expected.substring(90, 200));
+            assertThat(output.toString()).isEqualTo(expected.toString());
+
+            StringBuilder read = new StringBuilder();
+            char[] buffer = new char[77];
+            try (Reader reader = output.openReader()) {
+                int length;
+                while ((length = reader.read(buffer)) > 0) {
+                    read.append(buffer, 0, length);
+                }
+            }
+            assertThat(read.toString()).isEqualTo(expected.toString());
+        }
+        assertThat(spillFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testSpillFilesAreNotFoundInWorkspace() throws Exception {
+        File workspace = new File("target/test-captured-output-workspace");
+        if (workspace.exists()) {
+            FileFinderTest.deleteRecursively(workspace);
+        }
+        FileFinderTest.touch(workspace, "build.log");
+        File dir = new File(workspace, CapturedOutput.SPILL_DIR_NAME);
+        try (CapturedOutput output = new CapturedOutput(dir, 10)) {
+            for (int i = 0; i < 100; i++) {
+                output.appendLine("line " + i);
+            }
+            assertThat(output.isSpilled()).isTrue();
+            List<File> files = new FileFinder(workspace, "**/*").findFiles();
+            assertThat(files).hasSize(1);
+            assertThat(files.get(0).getName()).isEqualTo("build.log");
+        }
+        assertThat(dir.exists()).describedAs("spill directory removed").isFalse();
+    }
+
+    @Test
+    public void testCaptureCommandOutput() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+        try (CapturedOutput output = ProcessHelper.runCommandCaptureOutput(new File("."), logger, Collections.emptyMap(), spillDir, 1024, "bash", "-c", "seq 1 100000")) {
+            assertThat(output.isSpilled()).isTrue();
+            assertThat(output.subSequence(0, 6).toString()).isEqualTo("1\n2\n3\n");
+            assertThat(output.size()).isEqualTo((long) ProcessHelper.runCommandCaptureOutput(new File("."), logger, null, "bash", "-c", "seq 1 100000").length());
+        }
+    }
+
+    @Test
+    public void testFailedCommandLogsSpilledOutput() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Logger logger = new DefaultLogger(new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream()));
+        IOException failure = null;
+        try {
+            ProcessHelper.runCommandCaptureOutput(new File("."), logger, null, spillDir, 100, "bash", "-c", "seq 1 1000; exit 3").close();
+        } catch (IOException e) {
+            failure = e;
+        }
+        assertThat(failure).describedAs("command failure").isNotNull();
+        String text = out.toString("UTF-8");
+        assertThat(text).contains("\n1\n2\n");
+        assertThat(text).contains("\n999\n1000\n");
+        assertThat(spillDir.exists()).describedAs("spill directory removed").isFalse();
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class ChunkStoreTest {
+
+    @Test
+    public void testStashAndUnstash() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        File source = new File(dir, "source");
+        byte[] large = randomBytes(1, 1000000);
+        write(source, "target/app.jar", large);
+        write(source, "target/classes/Foo.class", "foo".getBytes(StandardCharsets.UTF_8));
+        write(source, "target/empty.txt", new byte[0]);
+        write(source, "src/Foo.java", "ignored".getBytes(StandardCharsets.UTF_8));
+        Files.createSymbolicLink(new File(source, "target/latest.jar").toPath(), new File("app.jar").toPath());
+
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        ChunkStore.StashResult stashed = store.stash("build", source, "target/**");
+        assertThat(stashed.getFiles()).isEqualTo(4);
+        assertThat(stashed.getBytes()).isEqualTo(large.length + 3);
+        assertThat(stashed.getNewChunks()).isEqualTo(stashed.getChunks());
+
+        File target = new File(dir, "restored");
+        ChunkStore.StashResult restored = store.unstash("build", target);
+        assertThat(restored.getFiles()).isEqualTo(4);
+        assertThat(restored.getUnchangedFiles()).isEqualTo(0);
+        assertThat(Arrays.equals(Files.readAllBytes(new File(target, "target/app.jar").toPath()), large)).isTrue();
+        assertThat(new String(Files.readAllBytes(new File(target, "target/classes/Foo.class").toPath()), StandardCharsets.UTF_8)).isEqualTo("foo");
+        assertThat(new File(target, "target/empty.txt").length()).isEqualTo(0);
+        assertThat(new File(target, "src").exists()).isFalse();
+        assertThat(Files.readSymbolicLink(new File(target, "target/latest.jar").toPath()).toString()).isEqualTo("app.jar");
+        assertThat(new File(target, "target/app.jar").lastModified()).isEqualTo(new File(source, "target/app.jar").lastModified());
+
+        // restoring again only checks the files
+        restored = store.unstash("build", target);
+        assertThat(restored.getUnchangedFiles()).isEqualTo(3);
+        assertThat(restored.getChunks()).isEqualTo(0);
+
+        assertThat(store.unstash("missing", target)).isNull();
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testSimilarStashesShareChunks() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        File source = new File(dir, "source");
+        byte[] large = randomBytes(2, 2000000);
+        write(source, "app.jar", large);
+
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        ChunkStore.StashResult first = store.stash("first", source, "**");
+
+        // inserting bytes near the start only changes the chunks around the insertion
+        byte[] edited = new byte[large.length + 10];
+        System.arraycopy(large, 0, edited, 0, 100000);
+        System.arraycopy(large, 100000, edited, 100010, large.length - 100000);
+        write(source, "app.jar", edited);
+        ChunkStore.StashResult second = store.stash("second", source, "**");
+        assertThat(second.getChunks()).isGreaterThan(10);
+        assertThat(second.getNewChunks()).isLessThanOrEqualTo(2);
+        assertThat(second.getNewBytes()).isLessThan(edited.length / 5);
+
+        File target = new File(dir, "restored");
+        store.unstash("first", target);
+        assertThat(Arrays.equals(Files.readAllBytes(new File(target, "app.jar").toPath()), large)).isTrue();
+        store.unstash("second", target);
+        assertThat(Arrays.equals(Files.readAllBytes(new File(target, "app.jar").toPath()), edited)).isTrue();
+
+        // the chunks only used by the first stash are removed once it is deleted
+        assertThat(store.prune()).isEqualTo(0);
+        assertThat(store.deleteStash("first")).isTrue();
+        assertThat(store.prune()).isEqualTo(first.getChunks() - (second.getChunks() - second.getNewChunks()));
+        store.unstash("second", new File(dir, "again"));
+        assertThat(Arrays.equals(Files.readAllBytes(new File(dir, "again/app.jar").toPath()), edited)).isTrue();
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testUnstashDoesNotFollowLinksFromEarlierUnstash() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        File outside = new File(dir, "outside");
+        outside.mkdirs();
+        File first = new File(dir, "first");
+        first.mkdirs();
+        Files.createSymbolicLink(new File(first, "lib").toPath(), outside.toPath());
+        File second = new File(dir, "second");
+        write(second, "lib/sub/x.jar", "jar".getBytes(StandardCharsets.UTF_8));
+
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        store.stash("one", first, "**");
+        store.stash("two", second, "**");
+
+        File workspace = new File(dir, "workspace");
+        store.unstash("one", workspace);
+        assertThat(Files.isSymbolicLink(new File(workspace, "lib").toPath())).isTrue();
+        store.unstash("two", workspace);
+
+        assertThat(new File(outside, "sub").exists()).isFalse();
+        assertThat(Files.isSymbolicLink(new File(workspace, "lib").toPath())).isFalse();
+        assertThat(new String(Files.readAllBytes(new File(workspace, "lib/sub/x.jar").toPath()), StandardCharsets.UTF_8)).isEqualTo("jar");
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testStashNamesAreScoped() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        write(new File(dir, "one"), "a.txt", "one".getBytes(StandardCharsets.UTF_8));
+        write(new File(dir, "two"), "a.txt", "two".getBytes(StandardCharsets.UTF_8));
+
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        store.stash("build-1", "build", new File(dir, "one"), "**");
+        store.stash("build-2", "build", new File(dir, "two"), "**");
+
+        store.unstash("build-1", "build", new File(dir, "restored"));
+        assertThat(new String(Files.readAllBytes(new File(dir, "restored/a.txt").toPath()), StandardCharsets.UTF_8)).isEqualTo("one");
+        assertThat(store.unstash("build", new File(dir, "restored"))).isNull();
+
+        assertThat(store.deleteStash("build-1", "build")).isTrue();
+        assertThat(store.prune()).isEqualTo(1);
+        store.unstash("build-2", "build", new File(dir, "restored-2"));
+        assertThat(new String(Files.readAllBytes(new File(dir, "restored-2/a.txt").toPath()), StandardCharsets.UTF_8)).isEqualTo("two");
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testOldStashesExpire() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        write(new File(dir, "one"), "a.txt", "one".getBytes(StandardCharsets.UTF_8));
+        write(new File(dir, "two"), "a.txt", "two".getBytes(StandardCharsets.UTF_8));
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        store.stash("build-1", "build", new File(dir, "one"), "**");
+        store.stash("build-2", "build", new File(dir, "two"), "**");
+        store.stash("build-3", "build", new File(dir, "two"), "**");
+
+        // build-1 completed a week ago while build-2 unstashed its stash since
+        long old = System.currentTimeMillis() - store.getMaxStashAgeMillis() - 1000;
+        assertThat(new File(dir, "store/manifests/build-1/build").setLastModified(old)).isTrue();
+        assertThat(new File(dir, "store/manifests/build-2/build").setLastModified(old)).isTrue();
+        store.unstash("build-2", "build", new File(dir, "restored"));
+
+        assertThat(store.expireIfDue()).isTrue();
+        assertThat(store.unstash("build-1", "build", new File(dir, "restored"))).isNull();
+        assertThat(new File(dir, "store/manifests/build-1").exists()).isFalse();
+        assertThat(store.unstash("build-2", "build", new File(dir, "restored"))).isNotNull();
+        assertThat(store.expireIfDue()).describedAs("expired again within the interval").isFalse();
+
+        // a build can delete its own stashes when it completes
+        assertThat(store.deleteStashes("build-3")).isEqualTo(1);
+        assertThat(store.unstash("build-3", "build", new File(dir, "restored"))).isNull();
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testUnstashRestoresModeOfUnchangedFiles() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        File source = new File(dir, "source");
+        write(source, "run.sh", "echo hello".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(new File(source, "run.sh").toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        store.stash("a", source, "**");
+
+        File target = new File(dir, "target");
+        store.unstash("a", target);
+        Path restored = new File(target, "run.sh").toPath();
+        Files.setPosixFilePermissions(restored, PosixFilePermissions.fromString("rw-rw-rw-"));
+
+        ChunkStore.StashResult result = store.unstash("a", target);
+        assertThat(result.getUnchangedFiles()).isEqualTo(1);
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(restored))).isEqualTo("rwxr-x---");
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testPruneWaitsForStashesInProgress() throws Exception {
+        File dir = Files.createTempDirectory("chunk-store-").toFile();
+        write(new File(dir, "source"), "a.txt", "a".getBytes(StandardCharsets.UTF_8));
+        ChunkStore store = new ChunkStore(new File(dir, "store"));
+        store.stash("a", new File(dir, "source"), "**");
+        store.deleteStash("a");
+
+        // a stash in progress has stored its chunks but not yet written its manifest
+        try (Closeable ignored = store.lockInUse()) {
+            assertThat(store.prune()).isEqualTo(0);
+        }
+
+        // markers left by killed processes are ignored
+        File staleMarker = new File(dir, "store/tmp/stale.lock");
+        write(staleMarker.getParentFile(), staleMarker.getName(), new byte[0]);
+        assertThat(store.prune()).isEqualTo(1);
+        assertThat(staleMarker.exists()).isFalse();
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testChunkSizes() throws Exception {
+        List<Integer> lengths = new ArrayList<>();
+        byte[] data = randomBytes(3, 5000000);
+        ChunkStore.forEachChunk(new ByteArrayInputStream(data), (chunk, length) -> lengths.add(length));
+        long total = 0;
+        for (int i = 0; i < lengths.size(); i++) {
+            int length = lengths.get(i);
+            total += length;
+            assertThat(length).isLessThanOrEqualTo(ChunkStore.MAX_CHUNK_SIZE);
+            if (i < lengths.size() - 1) {
+                assertThat(length).isGreaterThanOrEqualTo(ChunkStore.MIN_CHUNK_SIZE);
+            }
+        }
+        assertThat(total).isEqualTo(data.length);
+        assertThat(lengths.size()).isGreaterThan(data.length / ChunkStore.MAX_CHUNK_SIZE);
+    }
+
+    protected static byte[] randomBytes(long seed, int size) {
+        byte[] answer = new byte[size];
+        new Random(seed).nextBytes(answer);
+        return answer;
+    }
+
+    protected static void write(File dir, String path, byte[] data) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.runtime.FunctionSupport;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class CommandOutputCacheTest {
+
+    @Test
+    public void testCachesOutputUntilWatchedFileChanges() throws Exception {
+        File dir = Files.createTempDirectory("command-output-cache-").toFile();
+        File watched = new File(dir, "HEAD");
+        Files.write(watched.toPath(), "one".getBytes());
+        File[] watchedFiles = {watched};
+
+        CommandOutputCache cache = new CommandOutputCache(10);
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            String output = cache.getOutput("git rev-parse HEAD", dir, Collections.emptyMap(), watchedFiles, () -> "sha" + runs.incrementAndGet());
+            assertThat(output).isEqualTo("sha1");
+        }
+        assertThat(cache.getHits()).isEqualTo(4);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHitRate()).isEqualTo(0.8);
+
+        // a different environment runs the command again
+        assertThat(cache.getOutput("git rev-parse HEAD", dir, Collections.singletonMap("A", "B"), watchedFiles, () -> "sha" + runs.incrementAndGet())).isEqualTo("sha2");
+
+        // modifying the watched file runs the command again
+        Files.write(watched.toPath(), "changed".getBytes());
+        assertThat(cache.getOutput("git rev-parse HEAD", dir, Collections.emptyMap(), watchedFiles, () -> "sha" + runs.incrementAndGet())).isEqualTo("sha3");
+
+        Files.delete(watched.toPath());
+        Files.delete(dir.toPath());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        File dir = new File(".");
+        CommandOutputCache cache = new CommandOutputCache(2);
+        cache.getOutput("a", dir, null, null, () -> "a");
+        cache.getOutput("b", dir, null, null, () -> "b");
+        cache.getOutput("a", dir, null, null, () -> "a");
+        cache.getOutput("c", dir, null, null, () -> "c");
+        assertThat(cache.size()).isEqualTo(2);
+
+        assertThat(cache.getOutput("a", dir, null, null, () -> "a2")).isEqualTo("a");
+        assertThat(cache.getOutput("b", dir, null, null, () -> "b2")).isEqualTo("b2");
+    }
+
+    @Test
+    public void testLaterBuildRunsCommandAgain() throws Exception {
+        File dir = Files.createTempDirectory("command-output-cache-").toFile();
+        CommandOutputCache cache = new CommandOutputCache(10);
+        String command = "echo run >> runs.txt; wc -l < runs.txt";
+
+        assertThat(shOutputCached(cache, dir, "build-1", command)).isEqualTo(shOutputCached(cache, dir, "build-1", command));
+        assertThat(cache.getMisses()).isEqualTo(1);
+
+        shOutputCached(cache, dir, "build-2", command);
+        assertThat(cache.getMisses()).describedAs("misses after a later build").isEqualTo(2);
+        assertThat(Files.readAllLines(new File(dir, "runs.txt").toPath())).hasSize(2);
+
+        FileFinderTest.deleteRecursively(dir);
+    }
+
+    protected static String shOutputCached(CommandOutputCache cache, File dir, String buildTag, String command) {
+        // the build tag usually comes from the agent environment rather than the environment passed to commands
+        FunctionSupport functionSupport = new FunctionSupport() {
+            @Override
+            protected String getBuildTag() {
+                return buildTag;
+            }
+        };
+        functionSupport.setLogger(new DefaultLogger(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream())));
+        functionSupport.setCurrentDir(dir);
+        functionSupport.setCommandOutputCache(cache);
+        return functionSupport.shOutputCached(command);
+    }
+}
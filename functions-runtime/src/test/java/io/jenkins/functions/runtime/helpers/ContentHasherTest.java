@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class ContentHasherTest {
+
+    @Test
+    public void testHashTree() throws Exception {
+        File dir = Files.createTempDirectory("content-hasher-").toFile();
+        File a = write(dir, "a/one.txt", "one");
+        write(dir, "a/b/two.txt", "two");
+        byte[] large = new byte[(int) ContentHasher.MAPPED_READ_THRESHOLD + 10];
+        large[large.length - 1] = 1;
+        File big = new File(dir, "big.bin");
+        Files.write(big.toPath(), large);
+        setModifiedInPast(dir);
+
+        ContentHasher hasher = new ContentHasher(100);
+        String first = hasher.hashHex(dir);
+        assertThat(hasher.getFilesRead()).isEqualTo(3);
+        assertThat(ContentHasher.toHex(hasher.hash(big))).isEqualTo(ContentHasher.toHex(sha256(large)));
+
+        // unchanged files are not read again
+        assertThat(hasher.hashHex(dir)).isEqualTo(first);
+        assertThat(hasher.getFilesRead()).isEqualTo(3);
+
+        // a new hasher creates the same digest
+        assertThat(new ContentHasher(100).hashHex(dir)).isEqualTo(first);
+
+        Files.write(a.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+        String changed = hasher.hashHex(dir);
+        assertThat(changed).isNotEqualTo(first);
+        assertThat(hasher.getFilesRead()).isEqualTo(4);
+
+        // the order of the names does not matter
+        byte[] names = hasher.hash(dir, Arrays.asList("big.bin", "a", "missing"));
+        assertThat(ContentHasher.toHex(hasher.hash(dir, Arrays.asList("missing", "a", "big.bin")))).isEqualTo(ContentHasher.toHex(names));
+
+        deleteRecursively(dir);
+    }
+
+    protected static byte[] sha256(byte[] data) {
+        return ContentHasher.createDigest().digest(data);
+    }
+
+    protected static void setModifiedInPast(File dir) throws Exception {
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        WorkspaceIndexTest.setModified(dir, past);
+    }
+
+    protected static File write(File dir, String path, String text) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class EnvironmentTest {
+
+    @Test
+    public void testLayers() throws Exception {
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("A", "1");
+        overrides.put("B", "2");
+        Environment parent = Environment.of(overrides);
+        Environment child = parent.withOverride("B", "3").withOverrides(Collections.singletonMap("C", "4"));
+        overrides.put("A", "changed");
+
+        assertThat(parent.get("B")).isEqualTo("2");
+        assertThat(child.get("A")).isEqualTo("1");
+        assertThat(child.get("B")).isEqualTo("3");
+        assertThat(child.get("C")).isEqualTo("4");
+        assertThat(child.get("PATH")).isEqualTo(System.getenv("PATH"));
+        assertThat(child.getOverrides()).hasSize(3);
+        assertThat(parent.getOverrides()).hasSize(2);
+
+        // the flattened overrides are cached
+        assertThat(child.getOverrides() == child.getOverrides()).isTrue();
+        assertThat(child.getOverrides()).containsEntry("C", "4");
+        assertThat(Environment.getSystem().getOverrides()).isEmpty();
+        assertThat(Environment.getSystem().withOverrides(Collections.emptyMap()) == Environment.getSystem()).isTrue();
+    }
+
+    @Test
+    public void testApplyToProcess() throws Exception {
+        Environment environment = Environment.of(Collections.singletonMap("GREETING", "hello")).withOverride("NAME", "James");
+        ProcessBuilder builder = new ProcessBuilder("bash", "-c", "echo $GREETING $NAME");
+        ProcessHelper.applyEnvironmentVariables(builder, environment.getOverrides());
+        Process process = builder.start();
+        String output = new Scanner(process.getInputStream()).useDelimiter("\\A").next();
+        assertThat(process.waitFor()).isEqualTo(0);
+        assertThat(output.trim()).isEqualTo("hello James");
+    }
+}
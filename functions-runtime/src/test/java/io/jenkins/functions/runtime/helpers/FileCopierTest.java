@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FileCopierTest {
+
+    @Test
+    public void testCopyTree() throws Exception {
+        File dir = Files.createTempDirectory("file-copier-").toFile();
+        File source = new File(dir, "source");
+        byte[] binary = new byte[100000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        write(source, "a.bin", binary);
+        write(source, "nested/deeper/b.txt", "hello".getBytes(StandardCharsets.UTF_8));
+        Files.createSymbolicLink(new File(source, "link").toPath(), new File("a.bin").toPath());
+        FileTime modified = FileTime.fromMillis(1500000000000L);
+        Files.setLastModifiedTime(new File(source, "a.bin").toPath(), modified);
+
+        File target = new File(dir, "target");
+        FileCopier copier = new FileCopier();
+        copier.setPreserveAttributes(true);
+        assertThat(copier.copy(source, target)).isEqualTo(3);
+        assertThat(Arrays.equals(Files.readAllBytes(new File(target, "a.bin").toPath()), binary)).isTrue();
+        assertThat(new String(Files.readAllBytes(new File(target, "nested/deeper/b.txt").toPath()), StandardCharsets.UTF_8)).isEqualTo("hello");
+        assertThat(Files.readSymbolicLink(new File(target, "link").toPath()).toString()).isEqualTo("a.bin");
+        assertThat(Files.getLastModifiedTime(new File(target, "a.bin").toPath())).isEqualTo(modified);
+
+        File linked = new File(dir, "linked");
+        FileCopier linker = new FileCopier();
+        linker.setHardLinks(true);
+        linker.copy(source, linked);
+        Path linkedFile = new File(linked, "a.bin").toPath();
+        assertThat(Files.isSameFile(linkedFile, new File(source, "a.bin").toPath())).isTrue();
+        assertThat(linker.getBytes()).isEqualTo(0);
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testCopyIntoExistingTreeDoesNotFollowLinks() throws Exception {
+        File dir = Files.createTempDirectory("file-copier-").toFile();
+        File source = new File(dir, "source");
+        write(source, "nested/b.txt", "hello".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(source.toPath(), PosixFilePermissions.fromString("rwx------"));
+        Files.setLastModifiedTime(source.toPath(), FileTime.fromMillis(1500000000000L));
+
+        // a link left in the target by an earlier build
+        File outside = new File(dir, "outside");
+        outside.mkdirs();
+        File target = new File(dir, "target");
+        target.mkdirs();
+        Files.createSymbolicLink(new File(target, "nested").toPath(), outside.toPath());
+        Files.setPosixFilePermissions(target.toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+        FileTime targetModified = FileTime.fromMillis(1400000000000L);
+        Files.setLastModifiedTime(target.toPath(), targetModified);
+
+        FileCopier copier = new FileCopier();
+        copier.setPreserveAttributes(true);
+        assertThat(copier.copy(source, target)).isEqualTo(1);
+        assertThat(new File(outside, "b.txt").exists()).describedAs("file written through the link").isFalse();
+        assertThat(Files.isSymbolicLink(new File(target, "nested").toPath())).isFalse();
+        assertThat(new String(Files.readAllBytes(new File(target, "nested/b.txt").toPath()), StandardCharsets.UTF_8)).isEqualTo("hello");
+
+        // the existing target directory keeps its own attributes
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(target.toPath()))).isEqualTo("rwxr-xr-x");
+        assertThat(Files.getLastModifiedTime(target.toPath()).toMillis()).isNotEqualTo(1500000000000L);
+
+        deleteRecursively(dir);
+    }
+
+    protected static void write(File dir, String path, byte[] data) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.touch;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FileDeleterTest {
+
+    @Test
+    public void testDeleteRecursively() throws Exception {
+        File outside = Files.createTempDirectory("file-deleter-outside-").toFile();
+        touch(outside, "keep.txt");
+        File dir = Files.createTempDirectory("file-deleter-").toFile();
+        for (int i = 0; i < 50; i++) {
+            touch(dir, "a" + (i % 5) + "/b" + (i % 3) + "/file" + i + ".txt");
+        }
+        File readOnlyDir = new File(dir, "a0/b0");
+        new File(readOnlyDir, "file0.txt").setWritable(false);
+        readOnlyDir.setWritable(false);
+        Files.createSymbolicLink(new File(dir, "link").toPath(), outside.toPath());
+
+        try (FileDeleter ignored = new FileDeleter(dir)) {
+            assertThat(dir.exists()).isTrue();
+        }
+        assertThat(dir.exists()).isFalse();
+        assertThat(new File(outside, "keep.txt").exists()).isTrue();
+
+        FileDeleter.deleteRecursively(outside);
+        assertThat(outside.exists()).isFalse();
+    }
+
+    @Test
+    public void testDeleteAsync() throws Exception {
+        File dir = Files.createTempDirectory("file-deleter-").toFile();
+        File workspace = new File(dir, "workspace");
+        touch(workspace, "target/classes/Foo.class");
+
+        FileDeleter.deleteAsync(workspace).get(30, TimeUnit.SECONDS);
+        assertThat(workspace.exists()).isFalse();
+        assertThat(dir.list()).isEmpty();
+
+        FileDeleter.deleteRecursively(dir);
+    }
+
+    @Test
+    public void testDeleteAsyncDeletesStaleTrash() throws Exception {
+        File dir = Files.createTempDirectory("file-deleter-").toFile();
+        File workspace = new File(dir, "workspace");
+        touch(workspace, "target/classes/Foo.class");
+        // left behind by a JVM which exited while deleting in the background
+        File stale = new File(dir, ".old.deleting-" + UUID.randomUUID());
+        touch(stale, "target/classes/Bar.class");
+        assertThat(new FileFinder(dir, "**/*.class").findFiles()).hasSize(1);
+
+        FileDeleter.deleteAsync(workspace).get(30, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (stale.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(dir.list()).isEmpty();
+
+        FileDeleter.deleteRecursively(dir);
+    }
+
+    @Test
+    public void testDoesNotChangePermissionsOutsideTree() throws Exception {
+        File readOnlyDir = Files.createTempDirectory("file-deleter-read-only-").toFile();
+        File file = new File(readOnlyDir, "file.txt");
+        File dir = new File(readOnlyDir, "dir");
+        touch(readOnlyDir, "file.txt");
+        touch(readOnlyDir, "dir/file.txt");
+        readOnlyDir.setWritable(false);
+        try {
+            if (readOnlyDir.canWrite()) {
+                // permissions are not enforced; e.g. when running as root
+                return;
+            }
+            for (File root : new File[]{file, dir}) {
+                IOException failure = null;
+                try {
+                    FileDeleter.deleteRecursively(root);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                assertThat(failure).describedAs("failure deleting " + root).isNotNull();
+                assertThat(root.exists()).describedAs(root + " exists").isTrue();
+                assertThat(readOnlyDir.canWrite()).describedAs("parent is writable").isFalse();
+            }
+        } finally {
+            readOnlyDir.setWritable(true);
+            FileDeleter.deleteRecursively(readOnlyDir);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FileFinderTest {
+
+    @Test
+    public void testFindFiles() throws Exception {
+        File dir = Files.createTempDirectory("file-finder-").toFile();
+        touch(dir, "pom.xml");
+        touch(dir, "src/main/java/Foo.java");
+        touch(dir, "src/main/java/a/b/Bar.java");
+        touch(dir, "src/main/resources/foo.properties");
+        touch(dir, "src/test/java/FooTest.java");
+        touch(dir, "node_modules/left-pad/index.java");
+        touch(dir, ".git/objects/Foo.java");
+
+        assertThat(find(dir, "**/*.java")).containsExactly("src/main/java/Foo.java", "src/main/java/a/b/Bar.java", "src/test/java/FooTest.java");
+        assertThat(find(dir, "src/main/**/*.java")).containsExactly("src/main/java/Foo.java", "src/main/java/a/b/Bar.java");
+        assertThat(find(dir, "src/*/java/*.java")).containsExactly("src/main/java/Foo.java", "src/test/java/FooTest.java");
+        assertThat(find(dir, "*.xml")).containsExactly("pom.xml");
+        assertThat(find(dir, "src/{main,test}/java/*.java")).containsExactly("src/main/java/Foo.java", "src/test/java/FooTest.java");
+        assertThat(find(dir, "doesNotExist/**")).isEmpty();
+
+        FileFinder finder = new FileFinder(dir, "**/*.java");
+        finder.setExcludes(Collections.singleton(".git"));
+        assertThat(finder.findFiles()).hasSize(4);
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testDoubleStarMatchesZeroDirectories() throws Exception {
+        File dir = Files.createTempDirectory("file-finder-").toFile();
+        touch(dir, "pom.xml");
+        touch(dir, "sub/pom.xml");
+        touch(dir, "src/main/Main.java");
+        touch(dir, "src/main/java/a/B.java");
+        touch(dir, "a/b/c/x.txt");
+
+        assertThat(find(dir, "**/pom.xml")).containsExactly("pom.xml", "sub/pom.xml");
+        assertThat(find(dir, "src/main/**/*.java")).containsExactly("src/main/Main.java", "src/main/java/a/B.java");
+        assertThat(find(dir, "**/a/**/*.java")).containsExactly("src/main/java/a/B.java");
+        assertThat(find(dir, "a/**/b/**/c/*.txt")).containsExactly("a/b/c/x.txt");
+        assertThat(find(dir, "**/pom.xml.bak")).isEmpty();
+
+        FileFinder finder = new FileFinder(dir, "**/pom.xml");
+        finder.setIndex(new WorkspaceIndex(dir, new File(dir, WorkspaceIndex.INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES));
+        assertThat(finder.findFiles()).hasSize(2);
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testStreamCanBeClosedEarly() throws Exception {
+        File dir = Files.createTempDirectory("file-finder-").toFile();
+        for (int i = 0; i < 100; i++) {
+            touch(dir, "dir" + (i % 10) + "/file" + i + ".txt");
+        }
+        FileFinder finder = new FileFinder(dir, "**/*.txt");
+        finder.setBufferSize(2);
+        try (Stream<File> files = finder.stream()) {
+            assertThat(files.limit(5).count()).isEqualTo(5);
+        }
+        assertThat(finder.findFiles()).hasSize(100);
+
+        deleteRecursively(dir);
+    }
+
+    protected static List<String> find(File dir, String glob) {
+        List<String> answer = new ArrayList<>();
+        for (File file : new FileFinder(dir, glob).findFiles()) {
+            answer.add(dir.toPath().relativize(file.toPath()).toString());
+        }
+        Collections.sort(answer);
+        return answer;
+    }
+
+    protected static void deleteRecursively(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    protected static void touch(File dir, String path) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class FileHelperTest {
+
+    @Test
+    public void testReadSmallAndMappedFiles() throws Exception {
+        File file = File.createTempFile("file-helper-", ".txt");
+        try (FileDeleter ignored = new FileDeleter(file)) {
+            Files.write(file.toPath(), "caf\u00e9\nline 2\n".getBytes(StandardCharsets.UTF_8));
+            assertThat(FileHelper.readFully(file, StandardCharsets.UTF_8)).isEqualTo("caf\u00e9\nline 2\n");
+
+            StringBuilder builder = new StringBuilder();
+            while (builder.length() < FileHelper.MAPPED_READ_THRESHOLD) {
+                builder.append("line ").append(builder.length()).append(" \u00e9\n");
+            }
+            String text = builder.toString();
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            assertThat(FileHelper.readFully(file, StandardCharsets.UTF_8)).isEqualTo(text);
+
+            try (Stream<String> lines = FileHelper.readLines(file, StandardCharsets.UTF_8)) {
+                assertThat(lines.collect(Collectors.joining("\n", "", "\n"))).isEqualTo(text);
+            }
+
+            AtomicLong chunks = new AtomicLong();
+            long bytes = FileHelper.forEachChunk(file, 4096, buffer -> {
+                chunks.incrementAndGet();
+                return true;
+            });
+            assertThat(bytes).isEqualTo(file.length());
+            assertThat(chunks.get()).isEqualTo((file.length() + 4095) / 4096);
+
+            assertThat(FileHelper.forEachChunk(file, 4096, buffer -> false)).isEqualTo(4096);
+        }
+        assertThat(FileHelper.readFully(file, StandardCharsets.UTF_8)).isNull();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class LinePumperTest {
+
+    @Test
+    public void testSplitsLinesAcrossBuffers() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longLine.append("0123456789");
+        }
+        String text = "first\r\n\nsecond caf\u00e9\n" + longLine + "\nlast";
+        List<String> lines = new ArrayList<>();
+        ByteArrayInputStream input = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        long count = new LinePumper(input, LineSink.decoding(lines::add, StandardCharsets.UTF_8), new BufferPool(16, 1)).call();
+
+        assertThat(count).isEqualTo(5);
+        assertThat(lines).containsExactly("first", "", "second caf\u00e9", longLine.toString(), "last");
+    }
+
+    @Test
+    public void testWritesBytesToLogger() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Logger logger = new DefaultLogger(new PrintStream(out, true), new PrintStream(err, true));
+        byte[] bytes = "hello\nworld\n".getBytes(StandardCharsets.UTF_8);
+
+        new LinePumper(new ByteArrayInputStream(bytes), LineSink.info(logger)).call();
+        new LinePumper(new ByteArrayInputStream(bytes), LineSink.error(logger)).call();
+
+        String separator = System.lineSeparator();
+        assertThat(out.toString()).isEqualTo("hello" + separator + "world" + separator);
+        assertThat(err.toString()).isEqualTo("ERROR: hello" + separator + "ERROR: world" + separator);
+    }
+
+    @Test
+    public void testDecodesForCustomLoggers() throws Exception {
+        List<String> infos = new ArrayList<>();
+        Logger logger = new DefaultLogger(System.out, System.err) {
+            @Override
+            public void info(String message) {
+                infos.add(message);
+            }
+        };
+        new LinePumper(new ByteArrayInputStream("a\nb".getBytes(StandardCharsets.UTF_8)), LineSink.info(logger)).call();
+
+        assertThat(infos).containsExactly("a", "b");
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.runtime.metrics.ProcessMetricSnapshot;
+import io.jenkins.functions.runtime.metrics.StepMetric;
+import io.jenkins.functions.runtime.metrics.StepMetrics;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class ProcessHelperTest {
+    private static final int LINES = 2000000;
+
+    /**
+     * Writes tens of MB to both the output and error streams at the same time which would
+     * block forever if the streams were not pumped concurrently
+     */
+    @Test(timeout = 120000)
+    public void testLargeOutputOnBothStreams() throws Exception {
+        AtomicLong outputLines = new AtomicLong();
+        AtomicLong errorLines = new AtomicLong();
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(outputLines)), new PrintStream(new LineCounter(errorLines)));
+
+        String command = "(yes errorerror | head -n " + LINES + " >&2) & yes outputoutput | head -n " + LINES + "; wait";
+        int exitCode = ProcessHelper.runCommand(new File("."), logger, null, new String[]{"bash", "-c", command});
+
+        assertThat(exitCode).isEqualTo(0);
+        // the output also includes the command line
+        assertThat(outputLines.get()).describedAs("output lines").isEqualTo(LINES + 1);
+        assertThat(errorLines.get()).describedAs("error lines").isEqualTo(LINES);
+    }
+
+    @Test(timeout = 120000)
+    public void testCaptureLargeOutputWithErrors() throws Exception {
+        AtomicLong errorLines = new AtomicLong();
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(errorLines)));
+
+        String command = "(yes errorerror | head -n " + LINES + " >&2) & yes outputoutput | head -n 1000; wait";
+        String output = ProcessHelper.runCommandCaptureOutput(new File("."), logger, null, "bash", "-c", command);
+
+        assertThat(output.split("\n")).hasSize(1000);
+        assertThat(errorLines.get()).describedAs("error lines").isEqualTo(LINES);
+    }
+
+    @Test(timeout = 60000)
+    public void testStopStreamingOutputKillsProcess() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(new AtomicLong())));
+
+        // yes never terminates so this only completes if the process is killed
+        AtomicInteger count = new AtomicInteger();
+        long lines = ProcessHelper.runCommandForEachLine(new File("."), logger, null, line -> line.equals("y") && count.incrementAndGet() < 1000, "bash", "-c", "yes");
+        assertThat(lines).isEqualTo(1000L);
+
+        try (Stream<String> stream = ProcessHelper.runCommandStreamOutput(new File("."), logger, null, "bash", "-c", "seq 1 1000000")) {
+            assertThat(stream.skip(9).findFirst().get()).isEqualTo("10");
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testStopStreamingOutputKillsPipeline() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(new AtomicLong())));
+        String marker = "pipeline-" + UUID.randomUUID();
+
+        // the commands of the pipeline keep running if only the shell is killed
+        String command = "echo first; echo second; bash -c 'sleep 300; : " + marker + "' | cat";
+        try (Stream<String> stream = ProcessHelper.runCommandStreamOutput(new File("."), logger, null, "bash", "-c", command)) {
+            assertThat(stream.findFirst().get()).isEqualTo("first");
+        }
+        if (new File("/proc/self/stat").exists()) {
+            assertThat(isRunning(marker)).isFalse();
+        }
+    }
+
+    @Test(expected = FailedBuildException.class)
+    public void testStreamingOutputFails() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(new AtomicLong())));
+        try (Stream<String> stream = ProcessHelper.runCommandStreamOutput(new File("."), logger, null, "bash", "-c", "echo hello; exit 2")) {
+            assertThat(stream.count()).isEqualTo(1L);
+        }
+    }
+
+    public static boolean isRunning(String marker) {
+        File[] files = new File("/proc").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    if (new String(Files.readAllBytes(new File(file, "cmdline").toPath())).contains(marker)) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    // not a process or it has exited
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testExecResultResourceUsage() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(new AtomicLong())));
+        StepMetrics metrics = StepMetrics.getInstance();
+        boolean enabled = metrics.isEnabled();
+        StepMetric metric = new StepMetric("test");
+        metrics.setEnabled(true);
+        StepMetric previous = metrics.setCurrentMetric(metric);
+        try {
+            // burn some CPU so that a sample is taken while the process is running
+            String command = "i=0; while [ $i -lt 100000 ]; do i=$((i+1)); done; printf hello; printf bye >&2";
+            ExecResult result = ProcessHelper.runCommandWithResult(new File("."), logger, null, "bash", "-c", command);
+
+            assertThat(result.getExitCode()).isEqualTo(0);
+            assertThat(result.getOutputBytes()).isEqualTo(5L);
+            assertThat(result.getErrorBytes()).isEqualTo(3L);
+            assertThat(result.getWallTimeNanos()).isGreaterThan(0L);
+            if (new File("/proc/self/stat").exists()) {
+                assertThat(result.getCpuNanos()).isGreaterThan(0L);
+                assertThat(result.getPeakRssBytes()).isGreaterThan(0L);
+            }
+            ProcessMetricSnapshot processes = metric.snapshot().getProcesses();
+            assertThat(processes.getProcesses()).isEqualTo(1L);
+            assertThat(processes.getOutputBytes()).isEqualTo(8L);
+        } finally {
+            metrics.setCurrentMetric(previous);
+            metrics.setEnabled(enabled);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testTimeoutKillsProcessTree() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new LineCounter(new AtomicLong())), new PrintStream(new LineCounter(new AtomicLong())));
+        File pidFile = new File("target/process-tree.pid").getAbsoluteFile();
+        pidFile.getParentFile().mkdirs();
+        pidFile.delete();
+
+        String command = "sleep 300 & echo $! > " + pidFile + "; wait";
+        ExecResult result = ProcessHelper.runCommandWithResult(new File("."), logger, null, 500, TimeUnit.MILLISECONDS, "bash", "-c", command);
+
+        assertThat(result.isKilled()).isTrue();
+        assertThat(result.getKillReason()).contains("timed out");
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(result.getWallTimeNanos()).isLessThan(TimeUnit.SECONDS.toNanos(30));
+        if (new File("/proc/self/stat").exists()) {
+            long pid = Long.parseLong(new String(Files.readAllBytes(pidFile.toPath())).trim());
+            assertThat(ProcessTree.isAlive(pid)).describedAs("sleep process " + pid + " is alive").isFalse();
+        }
+    }
+
+    protected static class LineCounter extends OutputStream {
+        private final AtomicLong lines;
+
+        public LineCounter(AtomicLong lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import io.jenkins.functions.Logger;
+import io.jenkins.functions.support.DefaultLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class ShellSessionTest {
+    private ShellSession session;
+    private List<String> output = new ArrayList<>();
+    private List<String> errors = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception {
+        session = new ShellSession(new File("."));
+    }
+
+    @After
+    public void close() {
+        session.close();
+    }
+
+    @Test
+    public void testOutputAndExitCode() throws Exception {
+        assertThat(run(new File("."), null, "echo hello; echo world >&2; exit 3")).isEqualTo(3);
+        assertThat(output).containsExactly("hello");
+        assertThat(errors).containsExactly("world");
+
+        assertThat(run(new File("."), null, "printf 'no newline'")).isEqualTo(0);
+        assertThat(output).containsExactly("no newline");
+    }
+
+    @Test
+    public void testDirectoryAndEnvironmentDoNotLeak() throws Exception {
+        File dir = new File("target").getAbsoluteFile();
+        dir.mkdirs();
+        Map<String, String> env = Collections.singletonMap("GREETING", "it's me");
+
+        assertThat(run(dir, env, "pwd; echo $GREETING; cd /; export OTHER=1")).isEqualTo(0);
+        assertThat(output).containsExactly(dir.getCanonicalPath(), "it's me");
+
+        assertThat(run(dir, null, "pwd; echo \"[$GREETING$OTHER]\"")).isEqualTo(0);
+        assertThat(output).containsExactly(dir.getCanonicalPath(), "[]");
+    }
+
+    @Test
+    public void testCommandCannotReadSessionInput() throws Exception {
+        assertThat(run(new File("."), null, "cat; echo done")).isEqualTo(0);
+        assertThat(output).containsExactly("done");
+        assertThat(run(new File("."), null, "echo again")).isEqualTo(0);
+        assertThat(output).containsExactly("again");
+    }
+
+    @Test
+    public void testBatchSharesShell() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+        List<String> commands = Arrays.asList("export GREETING=hello", "echo $GREETING; printf world", "false", "echo after");
+
+        List<CommandResult> results = ShellSession.runBatch(new File("."), null, commands, true, logger);
+        assertThat(results).hasSize(3);
+        assertThat(results.get(1).getOutput()).isEqualTo("hello\nworld\n");
+        assertThat(results.get(2).getExitCode()).isEqualTo(1);
+
+        results = ShellSession.runBatch(new File("."), null, commands, false, logger);
+        assertThat(results).hasSize(4);
+        assertThat(results.get(3).getOutput()).isEqualTo("after\n");
+        assertThat(results.get(3).isSuccess()).isTrue();
+    }
+
+    @Test
+    public void testBatchContinuesAfterCommandExitsShell() throws Exception {
+        Logger logger = new DefaultLogger(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+        File dir = Files.createTempDirectory("shell-session-").toFile();
+        new File(dir, "sub").mkdirs();
+        List<String> commands = Arrays.asList("cd sub; export GREETING=hello", "echo one", "echo two; exit 3", "set -e; false; echo skipped",
+                "echo $GREETING; basename $PWD");
+
+        List<CommandResult> results = ShellSession.runBatch(dir, null, commands, false, logger);
+        assertThat(results).hasSize(5);
+        assertThat(results.get(1).getOutput()).isEqualTo("one\n");
+        assertThat(results.get(2).getExitCode()).isEqualTo(3);
+        assertThat(results.get(2).getOutput()).isEqualTo("two\n");
+        assertThat(results.get(3).getExitCode()).isEqualTo(1);
+        assertThat(results.get(3).getOutput()).isEqualTo("");
+        assertThat(results.get(4).getOutput()).isEqualTo("hello\nsub\n");
+        assertThat(results.get(4).isSuccess()).isTrue();
+
+        results = ShellSession.runBatch(dir, null, commands, true, logger);
+        assertThat(results).hasSize(3);
+        assertThat(results.get(2).getExitCode()).isEqualTo(3);
+
+        FileFinderTest.deleteRecursively(dir);
+    }
+
+    @Test
+    public void testBatchStateFileIsOnlyReadableByOwner() throws Exception {
+        File stateFile = ShellSession.createStateFile();
+        try {
+            Map<String, String> env = Collections.singletonMap("SECRET", "s3cr3t");
+            assertThat(run(null, env, "export SECRET; " + ShellSession.createSaveStateScript(stateFile))).isEqualTo(0);
+            assertThat(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8)).contains("s3cr3t");
+            assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(stateFile.toPath()))).isEqualTo("rw-------");
+        } finally {
+            stateFile.delete();
+        }
+    }
+
+    protected int run(File dir, Map<String, String> env, String command) throws Exception {
+        output.clear();
+        errors.clear();
+        return session.run(dir, env, command, output::add, errors::add);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class WorkspaceArchiveTest {
+
+    @Test
+    public void testArchiveAndExtract() throws Exception {
+        File dir = Files.createTempDirectory("workspace-archive-").toFile();
+        File source = new File(dir, "source");
+        byte[] large = new byte[100000];
+        new Random(1).nextBytes(large);
+        write(source, "target/app.jar", large);
+        write(source, "target/classes/Foo.class", "foo".getBytes(StandardCharsets.UTF_8));
+        write(source, "target/empty.txt", new byte[0]);
+        write(source, "src/Foo.java", "ignored".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(new File(source, "target/app.jar").toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        Files.createSymbolicLink(new File(source, "target/latest.jar").toPath(), new File("app.jar").toPath());
+
+        WorkspaceArchive archive = new WorkspaceArchive();
+        archive.setBlockSize(4096);
+        File archiveFile = new File(dir, "target.archive");
+        assertThat(archive.write(source, "target/**", archiveFile)).isEqualTo(4);
+        assertThat(archiveFile.length()).isLessThan(large.length + 1000);
+
+        File target = new File(dir, "extracted");
+        assertThat(archive.extract(archiveFile, target)).isEqualTo(4);
+        assertThat(Arrays.equals(Files.readAllBytes(new File(target, "target/app.jar").toPath()), large)).isTrue();
+        assertThat(new String(Files.readAllBytes(new File(target, "target/classes/Foo.class").toPath()), StandardCharsets.UTF_8)).isEqualTo("foo");
+        assertThat(new File(target, "target/empty.txt").length()).isEqualTo(0);
+        assertThat(new File(target, "src").exists()).isFalse();
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(target, "target/app.jar").toPath()))).isEqualTo("rwxr-x---");
+        assertThat(Files.readSymbolicLink(new File(target, "target/latest.jar").toPath()).toString()).isEqualTo("app.jar");
+        assertThat(new File(target, "target/app.jar").lastModified()).isEqualTo(new File(source, "target/app.jar").lastModified());
+
+        deleteRecursively(dir);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsEntriesOutsideTargetDirectory() throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(0x53574131);
+        out.writeInt(1);
+        out.writeByte('L');
+        out.writeUTF("../escaped");
+        out.writeUTF("/etc/passwd");
+        out.writeByte('E');
+        File dir = Files.createTempDirectory("workspace-archive-").toFile();
+        try {
+            new WorkspaceArchive().extract(new ByteArrayInputStream(buffer.toByteArray()), dir);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void testExtractDoesNotFollowLinksFromEarlierExtraction() throws Exception {
+        File dir = Files.createTempDirectory("workspace-archive-").toFile();
+        File outside = new File(dir, "outside");
+        outside.mkdirs();
+        File first = new File(dir, "first");
+        first.mkdirs();
+        Files.createSymbolicLink(new File(first, "lib").toPath(), outside.toPath());
+        File second = new File(dir, "second");
+        write(second, "lib/sub/x.jar", "jar".getBytes(StandardCharsets.UTF_8));
+
+        WorkspaceArchive archive = new WorkspaceArchive();
+        File firstArchive = new File(dir, "first.archive");
+        File secondArchive = new File(dir, "second.archive");
+        archive.write(first, "**", firstArchive);
+        archive.write(second, "**", secondArchive);
+
+        File target = new File(dir, "target");
+        assertThat(archive.extract(firstArchive, target)).isEqualTo(1);
+        assertThat(Files.isSymbolicLink(new File(target, "lib").toPath())).isTrue();
+        assertThat(archive.extract(secondArchive, target)).isEqualTo(1);
+
+        assertThat(new File(outside, "sub").exists()).isFalse();
+        assertThat(Files.isSymbolicLink(new File(target, "lib").toPath())).isFalse();
+        assertThat(new String(Files.readAllBytes(new File(target, "lib/sub/x.jar").toPath()), StandardCharsets.UTF_8)).isEqualTo("jar");
+
+        deleteRecursively(dir);
+    }
+
+    protected static void write(File dir, String path, byte[] data) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), data);
+    }
+}
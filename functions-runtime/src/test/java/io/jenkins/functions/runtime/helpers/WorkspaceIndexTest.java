@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.helpers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.deleteRecursively;
+import static io.jenkins.functions.runtime.helpers.FileFinderTest.touch;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class WorkspaceIndexTest {
+
+    @Test
+    public void testOnlyListsChangedDirectories() throws Exception {
+        File dir = Files.createTempDirectory("workspace-index-").toFile();
+        touch(dir, "a/One.java");
+        touch(dir, "b/Two.java");
+        touch(dir, "node_modules/Three.java");
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        setModified(dir, past);
+
+        WorkspaceIndex index = new WorkspaceIndex(dir, new File(dir, WorkspaceIndex.INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES);
+        assertThat(find(index, "**/*.java")).containsExactly("a/One.java", "b/Two.java");
+        assertThat(new File(dir, WorkspaceIndex.INDEX_FILE_NAME).isFile()).isTrue();
+
+        // adding a file changes the modified time of its directory
+        touch(dir, "a/Four.java");
+        assertThat(find(index, "**/*.java")).containsExactly("a/Four.java", "a/One.java", "b/Two.java");
+
+        // a directory whose modified time has not changed is not listed again
+        touch(dir, "b/Five.java");
+        Files.setLastModifiedTime(new File(dir, "b").toPath(), past);
+        assertThat(find(index, "b/*.java")).containsExactly("b/Two.java");
+
+        // the index is reloaded from the index file
+        WorkspaceIndex loaded = new WorkspaceIndex(dir, new File(dir, WorkspaceIndex.INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES);
+        loaded.load();
+        assertThat(loaded.size()).isEqualTo(index.size());
+        assertThat(loaded.getEntry("b").getFiles()).containsExactly("Two.java");
+
+        // removed directories are removed from the index
+        deleteRecursively(new File(dir, "a"));
+        assertThat(find(index, "**/*.java")).containsExactly("b/Two.java");
+        assertThat(index.getEntry("a")).isNull();
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testOnlyChecksDirectoriesWhichCanMatch() throws Exception {
+        File dir = Files.createTempDirectory("workspace-index-").toFile();
+        touch(dir, "src/main/java/a/One.java");
+        touch(dir, "src/test/java/b/Two.java");
+        touch(dir, "docs/guide/Three.java");
+        List<String> checked = new ArrayList<>();
+        WorkspaceIndex index = new WorkspaceIndex(dir, new File(dir, WorkspaceIndex.INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES) {
+            @Override
+            protected void refresh(String relativeDir, Path path, Predicate<String> directoryFilter) throws IOException {
+                checked.add(relativeDir);
+                super.refresh(relativeDir, path, directoryFilter);
+            }
+        };
+
+        assertThat(find(index, "src/main/**/*.java")).containsExactly("src/main/java/a/One.java");
+        assertThat(checked).containsExactly("src/main", "src/main/java", "src/main/java/a");
+
+        checked.clear();
+        assertThat(find(index, "src/*/java/*.java")).isEmpty();
+        assertThat(checked).containsExactly("src", "src/main", "src/main/java", "src/test", "src/test/java");
+
+        checked.clear();
+        assertThat(find(index, "**/*.java")).containsExactly("docs/guide/Three.java", "src/main/java/a/One.java", "src/test/java/b/Two.java");
+        assertThat(checked).hasSize(10);
+
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void testIndexFileIsNotFound() throws Exception {
+        File dir = Files.createTempDirectory("workspace-index-").toFile();
+        touch(dir, "a/One.java");
+        WorkspaceIndex index = new WorkspaceIndex(dir, new File(dir, WorkspaceIndex.INDEX_FILE_NAME), FileFinder.DEFAULT_EXCLUDES);
+        assertThat(find(index, "**")).containsExactly("a/One.java");
+        assertThat(new File(dir, WorkspaceIndex.INDEX_FILE_NAME).isFile()).isTrue();
+
+        // the same files are found without the index
+        List<String> walked = new ArrayList<>();
+        for (File file : new FileFinder(dir, "**").findFiles()) {
+            walked.add(dir.toPath().relativize(file.toPath()).toString());
+        }
+        assertThat(walked).containsExactly("a/One.java");
+
+        deleteRecursively(dir);
+    }
+
+    protected static List<String> find(WorkspaceIndex index, String glob) {
+        FileFinder finder = new FileFinder(index.getBaseDir(), glob);
+        finder.setIndex(index);
+        List<String> answer = new ArrayList<>();
+        for (File file : finder.findFiles()) {
+            answer.add(index.getBaseDir().toPath().relativize(file.toPath()).toString());
+        }
+        Collections.sort(answer);
+        return answer;
+    }
+
+    protected static void setModified(File dir, FileTime time) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Object path : paths.toArray()) {
+                Files.setLastModifiedTime((Path) path, time);
+            }
+        }
+    }
+}
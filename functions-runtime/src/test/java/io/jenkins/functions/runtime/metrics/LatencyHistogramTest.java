@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+import org.junit.Test;
+
+import static io.jenkins.functions.runtime.metrics.LatencyHistogram.BUCKET_COUNT;
+import static io.jenkins.functions.runtime.metrics.LatencyHistogram.SUB_BUCKETS;
+import static io.jenkins.functions.runtime.metrics.LatencyHistogram.bucketIndex;
+import static io.jenkins.functions.runtime.metrics.LatencyHistogram.bucketUpperBound;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSmallValuesHaveTheirOwnBuckets() throws Exception {
+        for (int i = 0; i < SUB_BUCKETS; i++) {
+            assertThat(bucketIndex(i)).isEqualTo(i);
+            assertThat(bucketUpperBound(i)).isEqualTo((long) i);
+        }
+        assertThat(bucketIndex(-1)).isEqualTo(0);
+    }
+
+    @Test
+    public void testPowerOfTwoEdges() throws Exception {
+        for (int bit = 2; bit < 63; bit++) {
+            long power = 1L << bit;
+            int index = bucketIndex(power);
+            assertThat(bucketIndex(power - 1)).describedAs("below 2^" + bit).isEqualTo(index - 1);
+            assertThat(bucketUpperBound(index - 1)).describedAs("upper bound below 2^" + bit).isEqualTo(power - 1);
+            assertThat(bucketIndex(power + (power >> 2) - 1)).describedAs("first sub bucket of 2^" + bit).isEqualTo(index);
+            assertThat(bucketIndex(power + (power >> 2))).describedAs("second sub bucket of 2^" + bit).isEqualTo(index + 1);
+        }
+        assertThat(bucketIndex(4)).isEqualTo(4);
+        assertThat(bucketUpperBound(4)).isEqualTo(4L);
+        assertThat(bucketIndex(8)).isEqualTo(8);
+        assertThat(bucketIndex(9)).isEqualTo(8);
+        assertThat(bucketUpperBound(8)).isEqualTo(9L);
+        assertThat(bucketIndex(10)).isEqualTo(9);
+    }
+
+    @Test
+    public void testEveryValueIsWithinItsBucket() throws Exception {
+        for (long value = 0; value < 100000; value++) {
+            int index = bucketIndex(value);
+            assertThat(bucketUpperBound(index) >= value).describedAs("upper bound of " + value).isTrue();
+            if (index > 0) {
+                assertThat(bucketUpperBound(index - 1) < value).describedAs("previous upper bound of " + value).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxBucket() throws Exception {
+        int index = bucketIndex(Long.MAX_VALUE);
+        assertThat(index < BUCKET_COUNT).describedAs("index " + index + " within " + BUCKET_COUNT).isTrue();
+        assertThat(bucketUpperBound(index)).isEqualTo(Long.MAX_VALUE);
+        assertThat(bucketIndex(Long.MAX_VALUE - 1)).isEqualTo(index);
+        assertThat(bucketUpperBound(index - 1)).isEqualTo(Long.MAX_VALUE - (1L << 60));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(0);
+        assertThat(histogram.getBucketCounts()[index]).isEqualTo(1L);
+        assertThat(histogram.getBucketCounts()[0]).isEqualTo(1L);
+        assertThat(histogram.getCount()).isEqualTo(2L);
+        assertThat(histogram.getMax()).isEqualTo(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.metrics;
+
+import io.jenkins.functions.runtime.helpers.ExecResult;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class StepMetricsTest {
+
+    @Test
+    public void testWritePrometheus() throws Exception {
+        StepMetrics metrics = new StepMetrics(true);
+        LatencyHistogram latency = metrics.getMetric("build").getLatency();
+        latency.record(4);
+        latency.record(5);
+        latency.record(9);
+        metrics.getMetric("build").getProcesses().record(new ExecResult("make", 2, 3000000000L, 1000000000L, 500000000L, 4096, 10, 5));
+        metrics.getMetric("say \"hi\"");
+
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+
+        assertThat(writer.toString()).isEqualTo(lines(
+                "# HELP step_invocations_total The number of step invocations",
+                "# TYPE step_invocations_total counter",
+                "step_invocations_total{step=\"build\"} 0",
+                "step_invocations_total{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_errors_total The number of step invocations which failed",
+                "# TYPE step_errors_total counter",
+                "step_errors_total{step=\"build\"} 0",
+                "step_errors_total{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_in_flight The number of step invocations currently running",
+                "# TYPE step_in_flight gauge",
+                "step_in_flight{step=\"build\"} 0",
+                "step_in_flight{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_duration_seconds The duration of step invocations",
+                "# TYPE step_duration_seconds histogram",
+                "step_duration_seconds_bucket{step=\"build\",le=\"4.0E-9\"} 1",
+                "step_duration_seconds_bucket{step=\"build\",le=\"5.0E-9\"} 2",
+                "step_duration_seconds_bucket{step=\"build\",le=\"6.0E-9\"} 2",
+                "step_duration_seconds_bucket{step=\"build\",le=\"7.0E-9\"} 2",
+                "step_duration_seconds_bucket{step=\"build\",le=\"9.0E-9\"} 3",
+                "step_duration_seconds_bucket{step=\"build\",le=\"+Inf\"} 3",
+                "step_duration_seconds_sum{step=\"build\"} 1.8E-8",
+                "step_duration_seconds_count{step=\"build\"} 3",
+                "step_duration_seconds_bucket{step=\"say \\\"hi\\\"\",le=\"+Inf\"} 0",
+                "step_duration_seconds_sum{step=\"say \\\"hi\\\"\"} 0.0",
+                "step_duration_seconds_count{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_processes_total The number of processes run by steps",
+                "# TYPE step_processes_total counter",
+                "step_processes_total{step=\"build\"} 1",
+                "step_processes_total{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_process_failures_total The number of processes run by steps which failed",
+                "# TYPE step_process_failures_total counter",
+                "step_process_failures_total{step=\"build\"} 1",
+                "step_process_failures_total{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_process_seconds_total The wall clock time of processes run by steps",
+                "# TYPE step_process_seconds_total counter",
+                "step_process_seconds_total{step=\"build\"} 3.0",
+                "step_process_seconds_total{step=\"say \\\"hi\\\"\"} 0.0",
+                "# HELP step_process_cpu_seconds_total The CPU time of processes run by steps",
+                "# TYPE step_process_cpu_seconds_total counter",
+                "step_process_cpu_seconds_total{step=\"build\",mode=\"user\"} 1.0",
+                "step_process_cpu_seconds_total{step=\"build\",mode=\"system\"} 0.5",
+                "step_process_cpu_seconds_total{step=\"say \\\"hi\\\"\",mode=\"user\"} 0.0",
+                "step_process_cpu_seconds_total{step=\"say \\\"hi\\\"\",mode=\"system\"} 0.0",
+                "# HELP step_process_output_bytes_total The bytes written to standard output and error by processes run by steps",
+                "# TYPE step_process_output_bytes_total counter",
+                "step_process_output_bytes_total{step=\"build\"} 15",
+                "step_process_output_bytes_total{step=\"say \\\"hi\\\"\"} 0",
+                "# HELP step_process_peak_rss_bytes The largest peak resident set size of a process run by steps",
+                "# TYPE step_process_peak_rss_bytes gauge",
+                "step_process_peak_rss_bytes{step=\"build\"} 4096",
+                "step_process_peak_rss_bytes{step=\"say \\\"hi\\\"\"} 0"));
+    }
+
+    protected static String lines(String... lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+}
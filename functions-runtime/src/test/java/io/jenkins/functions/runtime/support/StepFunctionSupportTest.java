@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.support;
+
+import io.jenkins.functions.runtime.FunctionContext;
+import io.jenkins.functions.runtime.FunctionSupport;
+import io.jenkins.functions.runtime.StepResults;
+import io.jenkins.functions.runtime.helpers.ShellSession;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class StepFunctionSupportTest {
+
+    @Test
+    public void testShellSessionIsClosedAfterInvoke() throws Exception {
+        Object result = createFunction(output -> output).invoke(new HashMap<>(), new FunctionContext());
+        assertThat(result).isEqualTo("hello\n");
+        assertThat(SessionFunction.lastSession.isAlive()).isFalse();
+    }
+
+    @Test
+    public void testShellSessionIsClosedWithStreamingResult() throws Exception {
+        Object result = createFunction(Stream::of).invoke(new HashMap<>(), new FunctionContext());
+        assertThat(SessionFunction.lastSession.isAlive()).isTrue();
+        assertThat(StepResults.toList(result)).containsExactly("hello\n");
+        assertThat(SessionFunction.lastSession.isAlive()).isFalse();
+    }
+
+    @Test
+    public void testShellSessionIsClosedWithIteratorResult() throws Exception {
+        Object result = createFunction(output -> Collections.singletonList(output).iterator()).invoke(new HashMap<>(), new FunctionContext());
+        assertThat(result instanceof Iterator).describedAs("iterator result").isTrue();
+        assertThat(SessionFunction.lastSession.isAlive()).isTrue();
+        assertThat(StepResults.toList(result)).containsExactly("hello\n");
+        assertThat(SessionFunction.lastSession.isAlive()).isFalse();
+    }
+
+    protected static StepFunctionSupport createFunction(Function<String, Object> result) {
+        return new StepFunctionSupport("session", SessionFunction.class, null) {
+            @Override
+            protected Object invokeOnInstance(Map<String, Object> arguments, FunctionContext context, Object object) {
+                String output = ((SessionFunction) object).run();
+                return result.apply(output);
+            }
+
+            @Override
+            protected Object createArgumentsObject(Object object, Map<String, Object> arguments) {
+                return object;
+            }
+        };
+    }
+
+    public static class SessionFunction extends FunctionSupport {
+        static volatile ShellSession lastSession;
+
+        public String run() {
+            setShellSessionMode(true);
+            try {
+                lastSession = getShellSession();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return shOutput("echo hello");
+        }
+    }
+}
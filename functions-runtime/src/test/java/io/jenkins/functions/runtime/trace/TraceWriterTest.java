@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.trace;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class TraceWriterTest {
+
+    @Test(timeout = 60000)
+    public void testCloseDoesNotHangWhenWritingFails() throws Exception {
+        File file = new File("target/test-trace/failed.json");
+        TraceWriter writer = new TraceWriter(file) {
+            @Override
+            protected void writeEvent(Span span) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Span span = new Span(null, 1, null, null, "step", "step", System.nanoTime());
+        writer.write(span);
+        // more spans than the queue can hold so that close cannot queue its marker unless spans are dropped
+        for (int i = 0; i < 100 * 1024; i++) {
+            writer.write(span);
+        }
+        IOException failure = null;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+        assertThat(failure).describedAs("close failure").isNotNull();
+        assertThat(failure.getMessage()).isEqualTo("disk full");
+        assertThat(writer.getDropped() > 0).describedAs("dropped spans").isTrue();
+    }
+
+    @Test
+    public void testAppendString() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        TraceWriter.appendString(builder, "a\"b\\c\nd\te\u0001");
+        assertThat(builder.toString()).isEqualTo("\"a\\\"b\\\\c\\nd\\te\\u0001\"");
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) Original Authors 2017
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.jenkins.functions.runtime.trace;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ */
+public class TracerTest {
+    private static final Pattern FIELD_PATTERN = Pattern.compile("\"(\\w+)\":(\"(?:[^\"\\\\]|\\\\.)*\"|-?\\d+)");
+
+    @Test
+    public void testWritesNestedSpans() throws Exception {
+        File file = new File("target/test-trace/nested.json");
+        Tracer tracer = new Tracer();
+        tracer.start(file);
+        assertThat(tracer.isEnabled()).isTrue();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Span outer = tracer.startSpan("outer", "step")) {
+            try (Span inner = tracer.startSpan("inner \"quoted\"", "command")) {
+                inner.addArg("exitCode", 0).addArg("dir", "a\\b");
+                Thread.sleep(2);
+            }
+            assertThat(tracer.getCurrentSpan()).isSameAs(outer);
+            executor.submit(tracer.wrap("branch", "parallel", () -> {
+                Thread.sleep(2);
+                return null;
+            })).get();
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(tracer.getCurrentSpan()).isNull();
+        tracer.stop();
+        assertThat(tracer.isEnabled()).isFalse();
+
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertThat(text).startsWith("{\"traceEvents\":[\n");
+        assertThat(text).endsWith("\n],\"otherData\":{\"droppedSpans\":0}}\n");
+
+        Map<String, Map<String, String>> events = parseEvents(text);
+        assertThat(events.keySet()).containsOnly("outer", "inner \\\"quoted\\\"", "branch");
+        Map<String, String> outer = events.get("outer");
+        Map<String, String> inner = events.get("inner \\\"quoted\\\"");
+        Map<String, String> branch = events.get("branch");
+
+        for (Map<String, String> event : events.values()) {
+            assertThat(event.get("ph")).isEqualTo("\"X\"");
+            assertThat(Long.parseLong(event.get("ts")) >= 0).describedAs("ts of " + event).isTrue();
+            assertThat(Long.parseLong(event.get("dur")) >= 0).describedAs("dur of " + event).isTrue();
+            assertThat(event.get("pid")).isEqualTo(Long.toString(TraceWriter.currentPid()));
+        }
+        assertThat(outer.get("parentId")).isEqualTo("0");
+        assertThat(inner.get("parentId")).isEqualTo(outer.get("id"));
+        assertThat(branch.get("parentId")).isEqualTo(outer.get("id"));
+        assertThat(inner.get("tid")).isEqualTo(outer.get("tid"));
+        assertThat(branch.get("tid")).isNotEqualTo(outer.get("tid"));
+        assertThat(inner.get("cat")).isEqualTo("\"command\"");
+        assertThat(inner.get("exitCode")).isEqualTo("0");
+        assertThat(inner.get("dir")).isEqualTo("\"a\\\\b\"");
+        assertThat(Long.parseLong(inner.get("dur")) >= 2000).describedAs("dur of inner").isTrue();
+        assertWithin(inner, outer);
+        assertWithin(branch, outer);
+        assertThat(Long.parseLong(branch.get("ts")) >= Long.parseLong(inner.get("ts")) + Long.parseLong(inner.get("dur")))
+                .describedAs("branch after inner").isTrue();
+    }
+
+    @Test
+    public void testDisabledTracerReturnsNoopSpans() throws Exception {
+        Tracer tracer = new Tracer();
+        assertThat(tracer.isEnabled()).isFalse();
+        try (Span span = tracer.startSpan("step", "step")) {
+            assertThat(span).isSameAs(Span.NOOP);
+            assertThat(tracer.getCurrentSpan()).isNull();
+        }
+    }
+
+    /**
+     * Asserts the child event is inside the parent event; allowing for the rounding down to microseconds
+     */
+    protected static void assertWithin(Map<String, String> child, Map<String, String> parent) {
+        long parentStart = Long.parseLong(parent.get("ts"));
+        long parentEnd = parentStart + Long.parseLong(parent.get("dur"));
+        long childStart = Long.parseLong(child.get("ts"));
+        long childEnd = childStart + Long.parseLong(child.get("dur"));
+        assertThat(childStart >= parentStart).describedAs(child + " starts within " + parent).isTrue();
+        assertThat(childEnd <= parentEnd + 1).describedAs(child + " ends within " + parent).isTrue();
+    }
+
+    /**
+     * Returns the fields of the trace events indexed by event name; string values keep their quotes and escapes
+     */
+    protected static Map<String, Map<String, String>> parseEvents(String text) {
+        String body = text.substring(text.indexOf('[') + 1, text.lastIndexOf(']')).trim();
+        List<String> lines = new ArrayList<>();
+        for (String line : body.split(",\n")) {
+            lines.add(line.trim());
+        }
+        Map<String, Map<String, String>> answer = new HashMap<>();
+        for (String line : lines) {
+            assertThat(line).startsWith("{").endsWith("}}");
+            Map<String, String> fields = new HashMap<>();
+            Matcher matcher = FIELD_PATTERN.matcher(line);
+            while (matcher.find()) {
+                fields.put(matcher.group(1), matcher.group(2));
+            }
+            String name = fields.get("name");
+            answer.put(name.substring(1, name.length() - 1), fields);
+        }
+        return answer;
+    }
+}
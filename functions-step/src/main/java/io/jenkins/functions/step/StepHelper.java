@@ -20,6 +20,7 @@ import hudson.model.TaskListener;
 import io.jenkins.functions.Logger;
 import io.jenkins.functions.runtime.FunctionContext;
 import io.jenkins.functions.runtime.StepFunction;
+import io.jenkins.functions.runtime.StepResults;
 import io.jenkins.functions.support.DefaultLogger;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
@@ -52,7 +53,12 @@ public class StepHelper {
 
     public static Object invokeFunction(StepFunction function, Map<String, Object> arguments, StepContext stepContext) throws IOException, InterruptedException {
         FunctionContext functionContext = createFunctionContext(stepContext);
-        return function.invoke(arguments, functionContext);
+        Object result = function.invoke(arguments, functionContext);
+        if (StepResults.isStreaming(result)) {
+            // pipeline step results must be serializable
+            return StepResults.toList(result);
+        }
+        return result;
     }
 
     public static Map<String, Object> getAllArguments(StepFunction function, Map<String, Object> arguments) {